@@ -0,0 +1,145 @@
+package com.uhc.optum.icm.webservice;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Batch schedule for a report window with the jobs, completed history and open history
+ * needed to resolve the status of every scheduled job in memory.
+ */
+public class IcmBatchJobsStatus {
+
+    private final IcmScheduleIndex schedule;
+    private final Map<Integer, IcmJob> jobs;
+    private final Map<Integer, List<IcmJobHistory>> completed;
+    private final Map<Integer, List<IcmJobHistory>> open;
+
+    /**
+     * @param schedule  IcmScheduleIndex
+     * @param jobs      Map of job id to job
+     * @param completed Map of job id to history completed in the window, ordered by start date
+     * @param open      Map of job id to open history, ordered by start date
+     */
+    public IcmBatchJobsStatus( IcmScheduleIndex schedule, Map<Integer, IcmJob> jobs,
+                               Map<Integer, List<IcmJobHistory>> completed, Map<Integer, List<IcmJobHistory>> open ) {
+        this.schedule = schedule;
+        this.jobs = jobs;
+        this.completed = completed;
+        this.open = open;
+    }
+
+    /**
+     * Get the schedule slots in the window, in report order.
+     * @return List
+     */
+    public List<IcmScheduleSlot> getSlots() {
+        return schedule.getSlots();
+    }
+
+    /**
+     * Get the index over the schedule slots in the window.
+     * @return IcmScheduleIndex
+     */
+    public IcmScheduleIndex getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * Get the scheduled jobs by id.
+     * @return Map
+     */
+    public Map<Integer, IcmJob> getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Get scheduled job.
+     * @param icmJobId int
+     * @return IcmJob
+     */
+    public IcmJob getJob( int icmJobId ) {
+        return jobs.get( icmJobId );
+    }
+
+    /**
+     * Get the history completed in the window for a job, ordered by start date.
+     * @param icmJobId int
+     * @return List
+     */
+    public List<IcmJobHistory> getCompleted( int icmJobId ) {
+        return completed.getOrDefault( icmJobId, Collections.emptyList() );
+    }
+
+    /**
+     * Get the latest open history for a job. Same as getIcmInprogressJob: the latest open run wins.
+     * @param icmJobId int
+     * @return IcmJobHistory
+     */
+    public IcmJobHistory getInProgress( int icmJobId ) {
+        List<IcmJobHistory> runs = open.get( icmJobId );
+        return ( runs != null && !runs.isEmpty() ? runs.get( runs.size() - 1 ) : null );
+    }
+
+    /**
+     * Get the ids of every open run.
+     * @return Set
+     */
+    public Set<Integer> getOpenIds() {
+        Set<Integer> ids = new HashSet<>();
+        for( List<IcmJobHistory> runs : open.values() ) {
+            for( IcmJobHistory h : runs ) {
+                ids.add( h.getId() );
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Apply new and changed job history, replacing earlier versions of the same runs.
+     * History of jobs not scheduled in the window is ignored.
+     * @param changes List of job history
+     * @param start   LocalDateTime window start
+     * @return Set of the job ids that changed
+     */
+    public Set<Integer> update( Collection<IcmJobHistory> changes, LocalDateTime start ) {
+        Set<Integer> changed = new HashSet<>();
+        for( IcmJobHistory h : changes ) {
+            int icmJobId = h.getJobId();
+            if( !jobs.containsKey( icmJobId ) || h.getStart() == null ) {
+                continue;
+            }
+            remove( completed, h );
+            remove( open, h );
+            if( h.getEnd() != null ) {
+                if( !h.getStart().isBefore( start ) ) {
+                    add( completed, h );
+                }
+            }
+            else {
+                add( open, h );
+            }
+            changed.add( icmJobId );
+        }
+        return changed;
+    }
+
+    private static void remove( Map<Integer, List<IcmJobHistory>> map, IcmJobHistory h ) {
+        List<IcmJobHistory> runs = map.get( h.getJobId() );
+        if( runs != null ) {
+            runs.removeIf( r -> r.getId() == h.getId() );
+        }
+    }
+
+    private static void add( Map<Integer, List<IcmJobHistory>> map, IcmJobHistory h ) {
+        List<IcmJobHistory> runs = map.computeIfAbsent( h.getJobId(), i -> new ArrayList<>() );
+        runs.add( h );
+        runs.sort( Comparator.comparing( IcmJobHistory::getStart ) );
+    }
+}
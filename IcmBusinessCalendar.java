@@ -0,0 +1,158 @@
+package com.uhc.optum.icm.webservice;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Holidays and pay all F dates, parsed once and kept as a bitmap of the days of each year.
+ * Lookups do not allocate, and the calendar is immutable so the report and the schedulers
+ * can share one instance.
+ */
+public class IcmBusinessCalendar {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmBusinessCalendar.class );
+
+    /** Sakamoto's month offsets for working out the day of week. */
+    private static final int[] MONTH_OFFSETS = { 0, 3, 2, 5, 0, 3, 5, 1, 4, 6, 2, 4 };
+
+    private final int firstYear;
+    private final BitSet[] holidays;
+    private final BitSet[] payAllF;
+
+    /**
+     * @param holidays Collection of holidays
+     * @param payAllF  Collection of pay all F dates
+     */
+    public IcmBusinessCalendar( Collection<LocalDate> holidays, Collection<LocalDate> payAllF ) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for( LocalDate d : holidays ) {
+            min = Math.min( min, d.getYear() );
+            max = Math.max( max, d.getYear() );
+        }
+        for( LocalDate d : payAllF ) {
+            min = Math.min( min, d.getYear() );
+            max = Math.max( max, d.getYear() );
+        }
+        int years = ( max >= min ? max - min + 1 : 0 );
+        this.firstYear = min;
+        this.holidays = toBitmap( holidays, min, years );
+        this.payAllF = toBitmap( payAllF, min, years );
+    }
+
+    /**
+     * Create a calendar from date lists in yyyy-MM-dd format separated by '#'.
+     * @param holidays String
+     * @param payAllF  String
+     * @return IcmBusinessCalendar
+     */
+    public static IcmBusinessCalendar of( String holidays, String payAllF ) {
+        return new IcmBusinessCalendar( parseDates( holidays ), parseDates( payAllF ) );
+    }
+
+    private static BitSet[] toBitmap( Collection<LocalDate> dates, int firstYear, int years ) {
+        BitSet[] bitmap = new BitSet[years];
+        for( LocalDate d : dates ) {
+            int i = d.getYear() - firstYear;
+            if( bitmap[i] == null ) {
+                bitmap[i] = new BitSet( 367 );
+            }
+            bitmap[i].set( d.getDayOfYear() );
+        }
+        return bitmap;
+    }
+
+    private boolean contains( BitSet[] bitmap, LocalDate date ) {
+        int i = date.getYear() - firstYear;
+        return ( i >= 0 && i < bitmap.length && bitmap[i] != null && bitmap[i].get( date.getDayOfYear() ) );
+    }
+
+    /**
+     * @param date LocalDate
+     * @return boolean
+     */
+    public boolean isHoliday( LocalDate date ) {
+        return contains( holidays, date );
+    }
+
+    /**
+     * @param date LocalDate
+     * @return boolean
+     */
+    public boolean isPayAllF( LocalDate date ) {
+        return contains( payAllF, date );
+    }
+
+    /**
+     * Get the day of month of the n-th day of week in a month, e.g. the third Sunday.
+     * @param year      int
+     * @param month     int 1 to 12
+     * @param n         int 1 to 5
+     * @param dayOfWeek DayOfWeek
+     * @return int day of month, or -1 if the month does not have an n-th such day
+     */
+    public static int nthWeekdayOfMonth( int year, int month, int n, DayOfWeek dayOfWeek ) {
+        int first = dayOfWeek( year, month, 1 );
+        int day = 1 + ( dayOfWeek.getValue() - first + 7 ) % 7 + ( n - 1 ) * 7;
+        return ( day <= Month.of( month ).length( Year.isLeap( year ) ) ? day : -1 );
+    }
+
+    /**
+     * Check if a date is a number of days after (or before, if negative) the n-th day of week
+     * of its month, e.g. the Monday after the third Sunday is (3, SUNDAY, 1). Only days in the
+     * same month match.
+     * @param date      LocalDate
+     * @param n         int 1 to 5
+     * @param dayOfWeek DayOfWeek
+     * @param offset    int days
+     * @return boolean
+     */
+    public static boolean isNthWeekdayOfMonth( LocalDate date, int n, DayOfWeek dayOfWeek, int offset ) {
+        int day = nthWeekdayOfMonth( date.getYear(), date.getMonthValue(), n, dayOfWeek );
+        return ( day > 0 && date.getDayOfMonth() == day + offset );
+    }
+
+    /**
+     * Day of week of a date without creating it (Sakamoto's method).
+     * @return int 1 (Monday) to 7 (Sunday)
+     */
+    private static int dayOfWeek( int year, int month, int day ) {
+        int y = ( month < 3 ? year - 1 : year );
+        int sunday0 = ( y + y / 4 - y / 100 + y / 400 + MONTH_OFFSETS[month - 1] + day ) % 7;
+        return ( sunday0 == 0 ? 7 : sunday0 );
+    }
+
+    /**
+     * Parse dates in yyyy-MM-dd format separated by '#'. Blank or invalid dates are skipped.
+     * @param value String
+     * @return List
+     */
+    public static List<LocalDate> parseDates( String value ) {
+        List<LocalDate> dates = new ArrayList<>();
+        if( value == null ) {
+            return dates;
+        }
+        for( String s : value.split( "#" ) ) {
+            if( s.trim().isEmpty() ) {
+                continue;
+            }
+            try {
+                dates.add( LocalDate.parse( s.trim() ) );
+            }
+            catch( DateTimeParseException e ) {
+                LOGGER.error( "Invalid date: " + s );
+            }
+        }
+        return dates;
+    }
+}
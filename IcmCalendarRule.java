@@ -0,0 +1,141 @@
+package com.uhc.optum.icm.webservice;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A calendar rule for a job with an irregular schedule. Rules are written as:
+ * <ul>
+ * <li>holiday:skip - not on holidays (holiday:only runs on holidays only)</li>
+ * <li>payallf:only - on pay all F dates only (payallf:skip runs on the other days)</li>
+ * <li>nth_weekday:&lt;n&gt;:&lt;day&gt;:&lt;offset&gt; - only on the n-th day of week of the month plus
+ * offset days, e.g. nth_weekday:3:SUNDAY:1 is the Monday after the third Sunday. Add :skip to
+ * run on every other day instead.</li>
+ * </ul>
+ */
+public class IcmCalendarRule {
+
+    public enum Kind { HOLIDAY, PAYALLF, NTH_WEEKDAY }
+
+    private static final String ONLY = "only";
+    private static final String SKIP = "skip";
+
+    private final String spec;
+    private final Kind kind;
+    private final boolean skip;
+    private final int nth;
+    private final DayOfWeek dayOfWeek;
+    private final int offset;
+
+    private IcmCalendarRule( String spec, Kind kind, boolean skip, int nth, DayOfWeek dayOfWeek, int offset ) {
+        this.spec = spec;
+        this.kind = kind;
+        this.skip = skip;
+        this.nth = nth;
+        this.dayOfWeek = dayOfWeek;
+        this.offset = offset;
+    }
+
+    /**
+     * Parse a rule.
+     * @param spec String
+     * @return IcmCalendarRule
+     * @throws IllegalArgumentException if the rule is not valid
+     */
+    public static IcmCalendarRule parse( String spec ) {
+        if( spec == null || spec.trim().isEmpty() ) {
+            throw new IllegalArgumentException( "Calendar rule is empty" );
+        }
+        String[] parts = spec.trim().split( ":" );
+        String name = parts[0].toLowerCase( Locale.US );
+        try {
+            switch( name ) {
+                case "holiday":
+                    return new IcmCalendarRule( spec, Kind.HOLIDAY, isSkip( parts, 1 ), 0, null, 0 );
+                case "payallf":
+                    return new IcmCalendarRule( spec, Kind.PAYALLF, isSkip( parts, 1 ), 0, null, 0 );
+                case "nth_weekday":
+                    if( parts.length < 4 ) {
+                        throw new IllegalArgumentException( "Expected nth_weekday:<n>:<day>:<offset>" );
+                    }
+                    int n = Integer.parseInt( parts[1] );
+                    if( n < 1 || n > 5 ) {
+                        throw new IllegalArgumentException( "n must be 1 to 5" );
+                    }
+                    DayOfWeek day = DayOfWeek.valueOf( parts[2].toUpperCase( Locale.US ) );
+                    int days = Integer.parseInt( parts[3] );
+                    boolean skip = ( parts.length > 4 && isSkip( parts, 4 ) );
+                    return new IcmCalendarRule( spec, Kind.NTH_WEEKDAY, skip, n, day, days );
+                default:
+                    throw new IllegalArgumentException( "Unknown rule: " + name );
+            }
+        }
+        catch( IllegalArgumentException e ) {
+            throw new IllegalArgumentException( "Invalid calendar rule [" + spec + "]: " + e.getMessage(), e );
+        }
+    }
+
+    private static boolean isSkip( String[] parts, int i ) {
+        String mode = ( parts.length > i ? parts[i].toLowerCase( Locale.US ) : "" );
+        if( SKIP.equals( mode ) ) {
+            return true;
+        }
+        if( ONLY.equals( mode ) ) {
+            return false;
+        }
+        throw new IllegalArgumentException( "Expected only or skip" );
+    }
+
+    /**
+     * Get the dates between from and to (inclusive) the rule matches.
+     * @param from     LocalDate
+     * @param to       LocalDate
+     * @param calendar IcmBusinessCalendar
+     * @return Set
+     */
+    public Set<LocalDate> getDates( LocalDate from, LocalDate to, IcmBusinessCalendar calendar ) {
+        Set<LocalDate> dates = new HashSet<>();
+        if( kind == Kind.NTH_WEEKDAY ) {
+            // Start a month early so a negative offset can reach into the range.
+            for( LocalDate month = from.withDayOfMonth( 1 ).minusMonths( 1 ); !month.isAfter( to ); month = month.plusMonths( 1 ) ) {
+                int day = IcmBusinessCalendar.nthWeekdayOfMonth( month.getYear(), month.getMonthValue(), nth, dayOfWeek );
+                if( day < 0 ) {
+                    continue;
+                }
+                LocalDate date = month.withDayOfMonth( day ).plusDays( offset );
+                if( !date.isBefore( from ) && !date.isAfter( to ) ) {
+                    dates.add( date );
+                }
+            }
+            return dates;
+        }
+        for( LocalDate date = from; !date.isAfter( to ); date = date.plusDays( 1 ) ) {
+            if( kind == Kind.HOLIDAY ? calendar.isHoliday( date ) : calendar.isPayAllF( date ) ) {
+                dates.add( date );
+            }
+        }
+        return dates;
+    }
+
+    /**
+     * @return Kind
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return boolean true if the job does not run on the matched dates, false if it runs only on them
+     */
+    public boolean isSkip() {
+        return skip;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,114 @@
+package com.uhc.optum.icm.webservice;
+
+import com.uhc.optum.exceptions.DBOperationsException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Calendar rules of the jobs with irregular schedules, compiled into the dates each job runs
+ * or does not run around a report day. Rules come from the calendar_rule job detail, several
+ * rules separated by '#'; jobs without the detail fall back to {@link #DEFAULT_RULES}.
+ * A job with "only" rules runs on any of their dates; "skip" rules always win.
+ */
+public class IcmCalendarRules {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmCalendarRules.class );
+
+    /** Job detail holding a job's calendar rules. */
+    public static final String CALENDAR_RULE = "calendar_rule";
+
+    /** Rules of the jobs that had them built in, by job name. */
+    public static final Map<String, String> DEFAULT_RULES;
+    static {
+        Map<String, String> rules = new LinkedHashMap<>();
+        rules.put( "enrollment_csp", "holiday:skip" );
+        rules.put( "ips_transactions", "nth_weekday:3:SUNDAY:1" );
+        rules.put( "cms_comprpt_processing", "nth_weekday:1:SATURDAY:4" );
+        rules.put( "acra_debtloader", "nth_weekday:3:SATURDAY:-2" );
+        rules.put( "united_payout_all_f", "payallf:only" );
+        rules.put( "united_payout_all_r", "payallf:skip" );
+        DEFAULT_RULES = Collections.unmodifiableMap( rules );
+    }
+
+    private final LocalDate from;
+    private final LocalDate to;
+    private final Map<Integer, Set<LocalDate>> only = new HashMap<>();
+    private final Map<Integer, Set<LocalDate>> skip = new HashMap<>();
+
+    /**
+     * Compile rules for the month of the day and the months either side of it.
+     * @param rules    Map of job id to rules
+     * @param day      LocalDate
+     * @param calendar IcmBusinessCalendar
+     */
+    public IcmCalendarRules( Map<Integer, String> rules, LocalDate day, IcmBusinessCalendar calendar ) {
+        this.from = day.withDayOfMonth( 1 ).minusMonths( 1 );
+        this.to = day.withDayOfMonth( 1 ).plusMonths( 2 ).minusDays( 1 );
+        for( Map.Entry<Integer, String> e : rules.entrySet() ) {
+            compile( e.getKey(), e.getValue(), calendar );
+        }
+    }
+
+    private void compile( int jobId, String rules, IcmBusinessCalendar calendar ) {
+        if( rules == null ) {
+            return;
+        }
+        for( String spec : rules.split( "#" ) ) {
+            try {
+                IcmCalendarRule rule = IcmCalendarRule.parse( spec );
+                Map<Integer, Set<LocalDate>> target = ( rule.isSkip() ? skip : only );
+                target.computeIfAbsent( jobId, k -> new HashSet<>() ).addAll( rule.getDates( from, to, calendar ) );
+            }
+            catch( IllegalArgumentException e ) {
+                LOGGER.error( "Ignoring calendar rule for job " + jobId + ": " + e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * Load the job rules, falling back to the default rules by job name, and compile them.
+     * @param dao      IcmDao
+     * @param day      LocalDate
+     * @param calendar IcmBusinessCalendar
+     * @return IcmCalendarRules
+     * @throws DBOperationsException exception
+     */
+    public static IcmCalendarRules load( IcmDao dao, LocalDate day, IcmBusinessCalendar calendar ) throws DBOperationsException {
+        Map<Integer, String> rules = new HashMap<>();
+        for( Map.Entry<String, String> e : DEFAULT_RULES.entrySet() ) {
+            IcmJob job = dao.getIcmJobByName( e.getKey() );
+            if( job != null ) {
+                rules.put( job.getId(), e.getValue() );
+            }
+        }
+        rules.putAll( dao.getIcmJobDetailValues( CALENDAR_RULE ) );
+        LOGGER.info( "Calendar rules: {}", rules );
+        return new IcmCalendarRules( rules, day, calendar );
+    }
+
+    /**
+     * Check if a job is expected to run on a day. Jobs without rules run every day.
+     * @param jobId int
+     * @param day   LocalDate
+     * @return boolean
+     */
+    public boolean isScheduled( int jobId, LocalDate day ) {
+        if( day.isBefore( from ) || day.isAfter( to ) ) {
+            LOGGER.warn( "Day " + day + " is outside the compiled calendar " + from + " to " + to );
+        }
+        Set<LocalDate> skipDates = skip.get( jobId );
+        if( skipDates != null && skipDates.contains( day ) ) {
+            return false;
+        }
+        Set<LocalDate> onlyDates = only.get( jobId );
+        return ( onlyDates == null || onlyDates.contains( day ) );
+    }
+}
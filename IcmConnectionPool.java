@@ -0,0 +1,246 @@
+package com.uhc.optum.icm.webservice;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of JDBC connections for the ICM DAOs. At most max connections are open; released
+ * connections stay open for the next borrower. Idle connections are checked with isValid
+ * before they are handed out and replaced when broken. A connection held longer than the leak
+ * threshold is logged once, with the stack trace of the code that borrowed it.
+ */
+public class IcmConnectionPool implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmConnectionPool.class );
+
+    /** Default time to wait for a connection (30 seconds). */
+    public static final long DEFAULT_BORROW_TIMEOUT = TimeUnit.SECONDS.toMillis( 30 );
+    /** Default time after which a borrowed connection is reported as leaked (5 minutes). */
+    public static final long DEFAULT_LEAK_THRESHOLD = TimeUnit.MINUTES.toMillis( 5 );
+    /** Seconds allowed for isValid. */
+    private static final int VALIDATION_TIMEOUT = 2;
+
+    /**
+     * Source of new connections.
+     */
+    public interface ConnectionFactory {
+        /**
+         * @return Connection
+         * @throws SQLException exception
+         */
+        Connection create() throws SQLException;
+    }
+
+    /**
+     * A borrowed connection.
+     */
+    private static final class Lease {
+        private final long borrowed = System.currentTimeMillis();
+        private final Throwable stack = new Throwable( "Connection borrowed by " + Thread.currentThread().getName() );
+        private boolean reported;
+    }
+
+    private final ConnectionFactory factory;
+    private final int min;
+    private final int max;
+    private final long borrowTimeout;
+    private final long leakThreshold;
+    private final Deque<Connection> idle = new ArrayDeque<>();
+    private final Map<Connection, Lease> leased = new IdentityHashMap<>();
+    private int pending;
+    private boolean closed;
+
+    /**
+     * @param factory       ConnectionFactory
+     * @param min           int connections opened by start
+     * @param max           int connections open at most
+     * @param borrowTimeout long milliseconds to wait for a connection
+     * @param leakThreshold long milliseconds after which a borrowed connection is logged as leaked
+     */
+    public IcmConnectionPool( ConnectionFactory factory, int min, int max, long borrowTimeout, long leakThreshold ) {
+        this.factory = factory;
+        this.max = Math.max( 1, max );
+        this.min = Math.max( 0, Math.min( min, this.max ) );
+        this.borrowTimeout = borrowTimeout;
+        this.leakThreshold = leakThreshold;
+    }
+
+    /**
+     * @param factory ConnectionFactory
+     * @param min     int connections opened by start
+     * @param max     int connections open at most
+     */
+    public IcmConnectionPool( ConnectionFactory factory, int min, int max ) {
+        this( factory, min, max, DEFAULT_BORROW_TIMEOUT, DEFAULT_LEAK_THRESHOLD );
+    }
+
+    /**
+     * Open the minimum number of connections.
+     * @throws SQLException exception
+     */
+    public synchronized void start() throws SQLException {
+        while( idle.size() + leased.size() < min ) {
+            idle.push( factory.create() );
+        }
+        LOGGER.info( "Connection pool started: " + this );
+    }
+
+    /**
+     * Borrow a connection, waiting up to the borrow timeout when all are in use.
+     * @return Connection
+     * @throws SQLException if no connection could be had in time
+     */
+    public Connection borrow() throws SQLException {
+        long until = System.currentTimeMillis() + borrowTimeout;
+        Connection connection;
+        synchronized( this ) {
+            while( true ) {
+                if( closed ) {
+                    throw new SQLException( "Connection pool is closed" );
+                }
+                reportLeaks();
+                connection = idle.poll();
+                if( connection != null || idle.size() + leased.size() + pending < max ) {
+                    // Validated or created outside the lock, counted as pending meanwhile.
+                    pending++;
+                    break;
+                }
+                long left = until - System.currentTimeMillis();
+                if( left <= 0 ) {
+                    throw new SQLException( "No connection available after " + borrowTimeout + " ms: " + this );
+                }
+                try {
+                    wait( left );
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException( "Interrupted waiting for a connection", e );
+                }
+            }
+        }
+        try {
+            if( connection != null && !isValid( connection ) ) {
+                LOGGER.warn( "Discarding broken connection" );
+                closeQuietly( connection );
+                connection = null;
+            }
+            if( connection == null ) {
+                connection = factory.create();
+            }
+        }
+        catch( SQLException | RuntimeException e ) {
+            synchronized( this ) {
+                pending--;
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized( this ) {
+            pending--;
+            leased.put( connection, new Lease() );
+        }
+        return connection;
+    }
+
+    /**
+     * Return a borrowed connection to the idle connections. Closed connections are dropped.
+     * @param connection Connection
+     */
+    public void release( Connection connection ) {
+        if( connection == null ) {
+            return;
+        }
+        boolean close;
+        synchronized( this ) {
+            if( leased.remove( connection ) == null ) {
+                LOGGER.warn( "Released a connection that was not borrowed from the pool" );
+                return;
+            }
+            close = ( closed || isClosed( connection ) );
+            if( !close ) {
+                idle.push( connection );
+            }
+            notifyAll();
+        }
+        if( close ) {
+            closeQuietly( connection );
+        }
+    }
+
+    /**
+     * Log connections borrowed for longer than the leak threshold, once each.
+     */
+    private void reportLeaks() {
+        long now = System.currentTimeMillis();
+        for( Lease lease : leased.values() ) {
+            if( !lease.reported && now - lease.borrowed > leakThreshold ) {
+                lease.reported = true;
+                LOGGER.warn( "Connection held for " + ( now - lease.borrowed ) + " ms, possible leak: ", lease.stack );
+            }
+        }
+    }
+
+    private static boolean isValid( Connection connection ) {
+        try {
+            return connection.isValid( VALIDATION_TIMEOUT );
+        }
+        catch( SQLException e ) {
+            return false;
+        }
+    }
+
+    private static boolean isClosed( Connection connection ) {
+        try {
+            return connection.isClosed();
+        }
+        catch( SQLException e ) {
+            return true;
+        }
+    }
+
+    private static void closeQuietly( Connection connection ) {
+        try {
+            connection.close();
+        }
+        catch( SQLException e ) {
+            LOGGER.warn( "Could not close connection: " + e );
+        }
+    }
+
+    /**
+     * Close the idle connections; borrowed connections are closed when they are released.
+     */
+    @Override
+    public void close() {
+        Deque<Connection> toClose;
+        synchronized( this ) {
+            closed = true;
+            toClose = new ArrayDeque<>( idle );
+            idle.clear();
+            notifyAll();
+        }
+        for( Connection connection : toClose ) {
+            closeQuietly( connection );
+        }
+    }
+
+    /**
+     * @return int connections open at most
+     */
+    public int getMax() {
+        return max;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "[idle:" + idle.size() + "][leased:" + leased.size() + "][min:" + min + "][max:" + max + "]";
+    }
+}
@@ -6,26 +6,26 @@ import com.uhc.optum.icm.sync.IcmSyncDao;
 import com.uhc.optum.icm.sync.IcmSyncRun;
 import com.uhc.optum.util.*;
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.time.DurationFormatUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.MessageFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.time.DayOfWeek;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.TemporalAdjusters;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 // Suppress "String literals should not be duplicated" warning for Sonar
 @java.lang.SuppressWarnings("java:S1192")
@@ -34,13 +34,13 @@ public class IcmDailyJobStatus {
     private static final Logger LOGGER = LogManager.getLogger( IcmDailyJobStatus.class );
 
     private  boolean isBatchCompleted = false;
-    private  LocalDate mondayAfterThirdSunday ;
-    private  LocalDate thursdayBeforeThirdSaturday ;
 
 
     IcmDao dao = new IcmDao( MainDao.DATABASE );
     IcmSyncDao sdao = new IcmSyncDao( MainDao.DATABASE );
-    List<Date>payAllFDates ;
+    String payAllFDates ;
+    private IcmBusinessCalendar businessCalendar;
+    private IcmCalendarRules calendar;
 
     private final int hours = dao.getConfigNumeric( Config.ICM_DAILY_JOB_STATUS_HOURS );
     private final String time = dao.getConfig( Config.ICM_DAILY_JOB_STATUS_TIME );
@@ -48,10 +48,44 @@ public class IcmDailyJobStatus {
     private final String to = dao.getConfig( Config.ICM_DAILY_JOB_STATUS_TO );
     private final String cc = dao.getConfig( Config.ICM_DAILY_JOB_STATUS_CC );
     private final String cspholidayList = dao.getConfig(Config.ICM_DAILY_CSP_HOLIDAYLIST);
-    private final Map<Integer, IcmJob> jobMap = new HashMap<>();
     private LocalDateTime startDateTime = null;
-    private List<String> excludedItems;
-    private static final DateTimeFormatter mmddyyyyhhmmssa = DateTimeFormatter.ofPattern( DateUtil.FMT_MMDDYYYY_HHMMSSA, Locale.US );
+    private LocalDateTime lastCompute = null;
+    private boolean daemon = false;
+    private int interval = DEFAULT_INTERVAL;
+    private int httpPort = 0;
+    private int poolSize = 0;
+    private final List<LocalTime> sendAt = new ArrayList<>();
+    private final Set<String> sections = new LinkedHashSet<>( Collections.singletonList( SECTION_JOBS ) );
+    private IcmFdsCounter fdsCounter;
+    // Not this, as sendReport holds this while the FDS section runs.
+    private final Object fdsLock = new Object();
+    private final IcmJobStatusEngine engine = new IcmJobStatusEngine( dao, this::isScheduledToday );
+    private static final List<String> EXCLUDED_ITEMS = Arrays.asList(
+            "commissionstatement_csv",
+            "downlinehierarchycsv",
+            "downlinehierarchypdf",
+            "downlinehierarchyxls",
+            "productionsummarycsv",
+            "productionsummarypdf",
+            "productionsummaryxls",
+            "statementscsv",
+            "statementspdf",
+            "statementsxls",
+            "GetUpdatesForSync" );
+    /** Default minutes between snapshot refreshes in daemon mode. */
+    private static final int DEFAULT_INTERVAL = 5;
+    /** Minutes between full recomputes in daemon mode; refreshes in between are incremental. */
+    private static final int FULL_COMPUTE_INTERVAL = 60;
+    /** Report sections, in report order; the jobs section is always included. */
+    private static final String SECTION_JOBS = "jobs";
+    private static final String SECTION_FDS = "fds";
+    private static final String SECTION_SYNC = "sync";
+    /** Time allowed for each report section. */
+    private static final long JOBS_TIMEOUT = TimeUnit.SECONDS.toMillis( 30 );
+    private static final long FDS_TIMEOUT = IcmFdsCounter.DEFAULT_DEADLINE + TimeUnit.SECONDS.toMillis( 30 );
+    private static final long SYNC_TIMEOUT = TimeUnit.MINUTES.toMillis( 1 );
+    private static final String LOGO = "/images/optumlogo.jpeg";
+    private static final DateTimeFormatter mmddyyyyhhmmssa = IcmTimeFormat.MMDDYYYY_HHMMSSA;
 
     /**
      * Main method.
@@ -62,7 +96,13 @@ public class IcmDailyJobStatus {
         try {
             IcmDailyJobStatus js = new IcmDailyJobStatus();
             js.processArgs(args);
-            js.run( args );
+            js.startConnectionPool();
+            if( js.daemon ) {
+                js.runDaemon();
+            }
+            else {
+                js.run( args );
+            }
         }
         catch( Exception e ) {
             LOGGER.error( "Exception: " , e );
@@ -73,160 +113,294 @@ public class IcmDailyJobStatus {
     }
 
     private void processArgs(String[] args) {
-        try {
-            for (String arg : args) {
-                LOGGER.info("arg: {}", arg);
-                if (arg.contains("=")) {
-                    String name = arg.substring(0, arg.indexOf("="));
-                    String value = arg.substring(arg.indexOf("=") + 1);
-                    if ("payallfdates".equalsIgnoreCase(name)) {
-                        LOGGER.info("payallfdates: {}", value);
-                        this.payAllFDates = getPayAllFDates(value);
-                        LOGGER.info(" Pay out All F Dates : {}" ,payAllFDates );
+        for (String arg : args) {
+            LOGGER.info("arg: {}", arg);
+            if (arg.contains("=")) {
+                String name = arg.substring(0, arg.indexOf("="));
+                String value = arg.substring(arg.indexOf("=") + 1);
+                if ("payallfdates".equalsIgnoreCase(name)) {
+                    LOGGER.info("payallfdates: {}", value);
+                    this.payAllFDates = value;
+                    LOGGER.info(" Pay out All F Dates : {}" ,payAllFDates );
+                }
+                else if ("interval".equalsIgnoreCase(name) && StringUtil.isNumeric(value)) {
+                    this.interval = Math.max(1, Integer.parseInt(value));
+                }
+                else if ("httpport".equalsIgnoreCase(name) && StringUtil.isNumeric(value)) {
+                    this.httpPort = Integer.parseInt(value);
+                }
+                else if ("poolsize".equalsIgnoreCase(name) && StringUtil.isNumeric(value)) {
+                    this.poolSize = Integer.parseInt(value);
+                }
+                else if ("sections".equalsIgnoreCase(name)) {
+                    for (String section : value.split("#")) {
+                        String v = section.trim().toLowerCase();
+                        if (SECTION_FDS.equals(v) || SECTION_SYNC.equals(v)) {
+                            sections.add(v);
+                        }
+                        else if (!SECTION_JOBS.equals(v)) {
+                            LOGGER.error("Invalid report section: {}", section);
+                        }
+                    }
+                }
+                else if ("sendat".equalsIgnoreCase(name)) {
+                    for (String t : value.split("#")) {
+                        try {
+                            sendAt.add(LocalTime.parse(t.trim()));
+                        }
+                        catch (DateTimeParseException e) {
+                            LOGGER.error("Invalid send time: {}", t);
+                        }
                     }
                 }
             }
-
-        } catch (ParseException e) {
-            e.printStackTrace();
+            else if ("daemon".equalsIgnoreCase(arg)) {
+                this.daemon = true;
+            }
         }
     }
 
-        private List<Date> getPayAllFDates(String value) throws ParseException {
-            List<String> allFDates = Arrays.asList(value.split("#"));
-            List<Date> payAllFDate  = new ArrayList<>();
-            SimpleDateFormat sdformat = new SimpleDateFormat("yyyy-MM-dd");
-
-            for(String allFDateString : allFDates){
-                Date allFDate = sdformat.parse(allFDateString);
-
-                payAllFDate.add(allFDate);
-
-            }
-
-            return payAllFDate;
+    /**
+     * Give dao a connection pool of poolSize connections when set, so the report sections and
+     * the refresher can query at the same time. Each connection is opened through its own MainDao.
+     */
+    private void startConnectionPool() throws SQLException {
+        if( poolSize <= 0 ) {
+            return;
+        }
+        IcmConnectionPool pool = new IcmConnectionPool( () -> new MainDao( MainDao.DATABASE ).getConnection(), 1, poolSize );
+        pool.start();
+        dao.setConnectionPool( pool );
+        Runtime.getRuntime().addShutdownHook( new Thread( pool::close ) );
+    }
 
-        }
     /**
      * Run process.
      * @param args String[]
      */
-    private void run( String[] args ) throws IOException, ParseException {
+    private void run( String[] args ) throws IOException {
 
         LOGGER.info( "args: {}" , ( args != null ? args.length : null ) );
-        List<String> holidayList = Arrays.asList(cspholidayList.split("#"));
-
-
-        // Calculate the start time for the email status.
-      startDateTime = calculateStartTime( hours, time );
-       LocalDateTime endDateTime = LocalDateTime.now();
-//        startDateTime = LocalDateTime.of(2023, 12, 13, 14, 33, 48, 640000);
-//        LocalDateTime endDateTime = LocalDateTime.of(2023, 12, 14, 9, 33, 48, 640000);
-
-
-
-
-
-        MailUtil mail = new MailUtil();
-        String subject = "ICM Daily Jobs Status Report - " + endDateTime.toLocalDate().format( DateTimeFormatter.ofPattern( DateUtil.FMT_MDYYYY ) )+" - "+isBatchjobsCompleted(startDateTime,endDateTime);
-        mail.init( from, to, subject );
-
-        StringBuilder msg  = new StringBuilder();
-
-        msg.append("<table style=\"width:100%;\">")
-        .append("<tr style=\"height:100px\" > <td style=\"align:left;width:20%; \">")
-        .append(getHtmlImageTag(encodeImage()))
-        .append("</td><td style=\"align:left\">")
-        .append("<h2>ICM Daily Jobs Status Report </h2></td></tr>")
-        .append("<tr><td style=\"text-align:left\" colspan =\"2\">")
-        .append("<h5 style=\"color:blue\">Job Status <h5>")
-        .append("</td></tr><tr  ><td colspan =\"2\" style=\"text-align:left\">")
-        .append(MessageFormat.format("<b>Since:</b> {0}",startDateTime.format( mmddyyyyhhmmssa )))
-        .append("</td></tr>")
-        .append("</table>");
-
-        msg.append( "<table cellspacing=\"4\" cellpadding=\"6\" style=\"font-size:12px\">" )
-                .append( "<tr>" )
-                .append( "<th style=\"border-bottom:2px solid black;\">Job Description</th>" )
-                .append( "<th style=\"border-bottom:2px solid black;text-align:center;\">Start Time</th>" )
-                .append( "<th style=\"border-bottom:2px solid black;text-align:center;\">End Time</th>" )
-                .append( "<th style=\"border-bottom:2px solid black;text-align:right;\">Run Time</th>" )
-                .append( "<th style=\"border-bottom:2px solid black;text-align:center;\">Status</th>" )
-                .append( "</tr>" );
-
-
-        LinkedHashMap<String,Integer> scheduleBatchJobs = dao.getIcmBatchJobsSchedule(startDateTime,endDateTime);
 
-        for(Map.Entry<String,Integer> entry : scheduleBatchJobs.entrySet()) {
-
-
-
-            int icmJobId = entry.getValue();
-            IcmJob job = dao.getIcmJob(icmJobId);
+        compute();
+        sendReport();
+    }
 
-//            Taking decision for some complex job Schedule
+    /**
+     * Run as a daemon: keep the DAO, caches and calendar warm, refresh the status snapshot every
+     * interval and send the report at each send time.
+     */
+    private void runDaemon() throws IOException, InterruptedException {
+        LOGGER.info( "Starting daemon: [interval:" + interval + " minutes][send at:" + sendAt + "][http port:" + httpPort + "]" );
+        if( sendAt.isEmpty() && httpPort <= 0 ) {
+            LOGGER.warn( "No send times (sendat=HH:mm#HH:mm) or http port (httpport=n); the status will not be published" );
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor( r -> new Thread( r, "IcmDailyJobStatus" ) );
+        Runtime.getRuntime().addShutdownHook( new Thread( executor::shutdownNow ) );
 
+        // Serve the latest snapshot; only the refresher below queries the database.
+        if( httpPort > 0 ) {
+            IcmStatusServer server = new IcmStatusServer( httpPort, engine::getLatest, this::formatStatusPage );
+            server.start();
+            Runtime.getRuntime().addShutdownHook( new Thread( server::close ) );
+        }
 
-            if(job.getName().equalsIgnoreCase("enrollment_csp") && isUSHoliday(holidayList)){
-                continue ;
+        executor.scheduleWithFixedDelay( () -> {
+            try {
+                refresh();
             }
-
-            if(job.getName().equalsIgnoreCase("ips_transactions") && !isMondayAfterThirdSunday() ){
-                continue;
+            catch( Exception e ) {
+                LOGGER.error( "Could not refresh job status: ", e );
             }
-            if(job.getName().equalsIgnoreCase("cms_comprpt_processing") && !isWednesdayAfterFirstSaturday()){
-                continue;
+        }, 0, interval, TimeUnit.MINUTES );
+        for( LocalTime at : sendAt ) {
+            scheduleSend( executor, at );
+        }
+        executor.awaitTermination( Long.MAX_VALUE, TimeUnit.DAYS );
+    }
+
+    /**
+     * Schedule the report for the next time of day, rescheduling it after each send.
+     * @param executor ScheduledExecutorService
+     * @param at       LocalTime
+     */
+    private void scheduleSend( ScheduledExecutorService executor, LocalTime at ) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime next = now.toLocalDate().atTime( at );
+        if( !next.isAfter( now ) ) {
+            next = next.plusDays( 1 );
+        }
+        LOGGER.info( "Next report at: {}", next );
+        executor.schedule( () -> {
+            try {
+                refresh();
+                sendReport();
             }
-            if(job.getName().equalsIgnoreCase("acra_debtloader") && !isThursdayBeforeThirdSaturday()){
-                continue;
+            catch( Exception e ) {
+                LOGGER.error( "Could not send job status report: ", e );
             }
-
-            if(job.getName().equalsIgnoreCase("united_payout_all_f")  && !payAllFDates.contains(currentDateofMonth()) ) {
-                continue;
+            finally {
+                if( !executor.isShutdown() ) {
+                    scheduleSend( executor, at );
+                }
             }
+        }, Duration.between( now, next ).toMillis(), TimeUnit.MILLISECONDS );
+    }
 
-            if(job.getName().equalsIgnoreCase("united_payout_all_r")  && payAllFDates.contains(currentDateofMonth())){
-                continue;
-            }
+    /**
+     * Compute the status snapshot for the report window from scratch.
+     */
+    private synchronized void compute() {
+        // Calculate the start time for the email status.
+        startDateTime = calculateStartTime( hours, time );
+        LocalDateTime endDateTime = LocalDateTime.now();
 
-            List<IcmJobHistory> jobCompleted = dao.getIcmCompletedJob(startDateTime, endDateTime, icmJobId);
-            if (jobCompleted != null && !(jobCompleted.isEmpty())) {
-                LOGGER.info("ICM job Completed with ICM job id : {}" , icmJobId);
-                msg.append(formatRecords(jobCompleted, true));
-                continue;
+        // Parse the holidays and pay all F dates once and compile the calendar rules of jobs
+        // with irregular schedules for the run.
+        businessCalendar = IcmBusinessCalendar.of( cspholidayList, payAllFDates );
+        try {
+            calendar = IcmCalendarRules.load( dao, endDateTime.toLocalDate(), businessCalendar );
+            engine.compute( startDateTime, endDateTime );
+            lastCompute = endDateTime;
+        }
+        finally {
+            dao.releaseConnection();
+        }
+    }
 
+    /**
+     * Bring the status snapshot up to date. Recompute from scratch when the report window
+     * moves to a new start or day, or every {@link #FULL_COMPUTE_INTERVAL} minutes; otherwise
+     * apply only the job history changed since the last refresh.
+     */
+    private synchronized void refresh() {
+        LocalDateTime now = LocalDateTime.now();
+        if( lastCompute == null || !now.toLocalDate().equals( lastCompute.toLocalDate() )
+                || ( hours <= 0 && !calculateStartTime( hours, time ).equals( startDateTime ) )
+                || Duration.between( lastCompute, now ).toMinutes() >= FULL_COMPUTE_INTERVAL ) {
+            compute();
+        }
+        else {
+            try {
+                engine.refresh( now );
             }
-            IcmJobHistory jobInProgress = dao.getIcmInprogressJob(icmJobId);
-            if (jobInProgress != null) {
-                LOGGER.info("InProgress job in ICM with ICM job id : {}" , icmJobId);
-                msg.append(formatRecords(jobInProgress, false));
-                isBatchCompleted  = false;
-                continue;
-
+            finally {
+                dao.releaseConnection();
             }
-            if(job != null){
-                LOGGER.info("Jobs that are not yet executed  : {}" ,job.getName());
-                msg.append(diaplayNotRunJob(job));
+        }
+    }
+
+    /**
+     * Format the latest status snapshot and email it.
+     */
+    private synchronized void sendReport() throws IOException {
+        try {
+            IcmJobStatusSnapshot snapshot = engine.getLatest();
+            LocalDateTime endDateTime = snapshot.getEnd();
+
+            MailUtil mail = new MailUtil();
+            String subject = "ICM Daily Jobs Status Report - " + endDateTime.toLocalDate().format( IcmTimeFormat.MDYYYY )+" - "+isBatchjobsCompleted(startDateTime,endDateTime);
+            mail.init( from, to, subject );
+
+            StringBuilder msg  = new StringBuilder();
+
+            msg.append("<table style=\"width:100%;\">")
+            .append("<tr style=\"height:100px\" > <td style=\"align:left;width:20%; \">")
+            .append(getHtmlImageTag(encodeImage()))
+            .append("</td><td style=\"align:left\">")
+            .append("<h2>ICM Daily Jobs Status Report </h2></td></tr>")
+            .append("<tr><td style=\"text-align:left\" colspan =\"2\">")
+            .append("<h5 style=\"color:blue\">Job Status <h5>")
+            .append("</td></tr><tr  ><td colspan =\"2\" style=\"text-align:left\">")
+            .append(MessageFormat.format("<b>Since:</b> {0}",startDateTime.format( mmddyyyyhhmmssa )))
+            .append("</td></tr>")
+            .append("</table>");
+
+            msg.append( formatTableHeader() );
+
+
+            // Compute the sections at the same time: the jobs rows come from the snapshot and sync
+            // from sdao, which nothing else uses. FDS uses dao, so it only runs concurrently on its own
+            // pooled connection; on the single MainDao connection a timed out FDS query would still
+            // be running when the next refresh uses that connection, so it runs on this thread.
+            try( IcmReportSections report = new IcmReportSections( sections.size() ) ) {
+                report.add( SECTION_JOBS, () -> formatSnapshot( snapshot ), JOBS_TIMEOUT,
+                            reason -> formatMessage( "Job Status", "Job status not available (" + reason + ")" ) );
+                // Append FDS details.
+                if( sections.contains( SECTION_FDS ) ) {
+                    Function<String, String> fdsFallback = reason -> formatMessage( "FDS Status", "FDS status not available (" + reason + ")" );
+                    if( dao.isPooled() ) {
+                        report.add( SECTION_FDS, () -> {
+                                        try {
+                                            return getFdsDetails();
+                                        }
+                                        finally {
+                                            dao.releaseConnection();
+                                        }
+                                    }, FDS_TIMEOUT, fdsFallback );
+                    }
+                    else {
+                        report.addOnCaller( SECTION_FDS, this::getFdsDetails, fdsFallback );
+                    }
+                }
+                // Append sync details.
+                if( sections.contains( SECTION_SYNC ) ) {
+                    report.add( SECTION_SYNC, this::getSyncDetails, SYNC_TIMEOUT,
+                                reason -> formatMessage( "ICM Sync (LPS)", "Sync status not available (" + reason + ")" ) );
+                }
+                report.appendTo( msg );
             }
 
-        }
+            msg.append( "</table>" );
 
+            LOGGER.info( "Statement cache: {}" , dao.getStatementCacheStats() );
+            LOGGER.info( "Sending email ..." );
+            mail.sendMail( to, cc, msg.toString() );
+        }
+        finally {
+            // Return the pooled connection even if the report fails.
+            dao.releaseConnection();
+        }
+    }
 
-        // Append FDS details.
-//        msg.append( getFdsDetails() );
-        // Append sync details.
-//        msg.append( getSyncDetails() );
 
-        msg.append( "</table>" );
 
-        LOGGER.info( "Sending email ..." );
-        mail.sendMail( to, cc, msg.toString() );
+    /**
+     * Format the opening of the job status table with its header row.
+     * @return String
+     */
+    private String formatTableHeader() {
+        return "<table cellspacing=\"4\" cellpadding=\"6\" style=\"font-size:12px\">"
+                + "<tr>"
+                + "<th style=\"border-bottom:2px solid black;\">Job Description</th>"
+                + "<th style=\"border-bottom:2px solid black;text-align:center;\">Start Time</th>"
+                + "<th style=\"border-bottom:2px solid black;text-align:center;\">End Time</th>"
+                + "<th style=\"border-bottom:2px solid black;text-align:right;\">Run Time</th>"
+                + "<th style=\"border-bottom:2px solid black;text-align:center;\">Status</th>"
+                + "</tr>";
     }
 
+    /**
+     * Format a status snapshot as an HTML page for the status server. Uses only the snapshot.
+     * @param snapshot IcmJobStatusSnapshot
+     * @return String
+     */
+    private String formatStatusPage( IcmJobStatusSnapshot snapshot ) {
+        StringBuilder msg = new StringBuilder();
+        msg.append( "<html><head><title>ICM Daily Jobs Status</title></head><body>" )
+                .append( "<h2>ICM Daily Jobs Status</h2>" )
+                .append( MessageFormat.format( "<p><b>Since:</b> {0} <b>As of:</b> {1}</p>",
+                                               snapshot.getStart().format( mmddyyyyhhmmssa ), snapshot.getCreated().format( mmddyyyyhhmmssa ) ) )
+                .append( formatTableHeader() )
+                .append( formatSnapshot( snapshot ) )
+                .append( "</table></body></html>" );
+        return msg.toString();
+    }
 
-
-    public String isBatchjobsCompleted(LocalDateTime start,LocalDateTime end) throws ParseException {
-        if(LocalDate.now().equals(mondayAfterThirdSunday) || LocalDate.now().equals(thursdayBeforeThirdSaturday)){
+    public String isBatchjobsCompleted(LocalDateTime start,LocalDateTime end) {
+        LocalDate today = LocalDate.now();
+        // IPS runs the Monday after the third Sunday, ACRA the Thursday before the third Saturday.
+        if(IcmBusinessCalendar.isNthWeekdayOfMonth(today, 3, DayOfWeek.SUNDAY, 1) || IcmBusinessCalendar.isNthWeekdayOfMonth(today, 3, DayOfWeek.SATURDAY, -2)){
             isBatchCompleted = dao.getLastScheduledJobStatusIpsAndAcra(start,end);
         }else{
             isBatchCompleted = dao.getLastScheduledJobStatus(start,end);
@@ -238,21 +412,12 @@ public class IcmDailyJobStatus {
         return " Success ";
     }
 
+    /**
+     * Get the logo as Base64, read and encoded once.
+     * @return String
+     */
     public  String encodeImage() throws IOException{
-
-        InputStream imageStream = getClass().getResourceAsStream("/images/optumlogo.jpeg");
-
-        BufferedImage image = ImageIO.read(imageStream);
-        imageStream.close();
-
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ImageIO.write(image,"jpeg",outputStream);
-        byte[] imageBytes = outputStream.toByteArray();
-        String encodedImage  = Base64.getEncoder().encodeToString(imageBytes);
-
-        outputStream.close();
-
-        return encodedImage;
+        return IcmEmbeddedResource.get( LOGO, "image/jpeg" ).getBase64();
     }
 
     public String getHtmlImageTag(String encodedImage){
@@ -261,61 +426,6 @@ public class IcmDailyJobStatus {
 
     }
 
-    public boolean isUSHoliday(List<String>holidayList) throws ParseException {
-        Date currentDate = currentDateofMonth();
-        SimpleDateFormat sdformat = new SimpleDateFormat("yyyy-MM-dd");
-
-        for(String holidayDateString : holidayList){
-            Date holidayDate = sdformat.parse(holidayDateString);
-
-            if(currentDate.compareTo(holidayDate) == 0)
-                return true;
-        }
-
-        return false;
-    }
-
-    public boolean isMondayAfterThirdSunday() throws ParseException {
-
-        LocalDate currentDate = LocalDate.now();
-        LocalDate thirdSunday = currentDate.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY)).with(TemporalAdjusters.dayOfWeekInMonth(3,DayOfWeek.SUNDAY));
-        mondayAfterThirdSunday = thirdSunday.plusDays(1);
-        LOGGER.info("Monday After Third Sunday : {}",mondayAfterThirdSunday);
-
-        return currentDate.equals(mondayAfterThirdSunday);
-
-    }
-    public boolean isThursdayBeforeThirdSaturday() throws ParseException {
-
-        LocalDate currentDate = LocalDate.now();
-        LocalDate thirdSaturday = currentDate.with(TemporalAdjusters.nextOrSame(DayOfWeek.SATURDAY)).with(TemporalAdjusters.dayOfWeekInMonth(3,DayOfWeek.SATURDAY));
-        thursdayBeforeThirdSaturday = thirdSaturday.minusDays(2);
-        LOGGER.info("Thursday Before Third Saturday : {} ",thursdayBeforeThirdSaturday);
-
-        return currentDate.equals(thursdayBeforeThirdSaturday);
-
-    }
-    public boolean isWednesdayAfterFirstSaturday()  {
-
-        LocalDate currentDate = LocalDate.now();
-        LocalDate firstSaturday = currentDate.with(TemporalAdjusters.nextOrSame(DayOfWeek.SATURDAY)).with(TemporalAdjusters.dayOfWeekInMonth(1,DayOfWeek.SATURDAY));
-        LocalDate wednesdayAfterFirstSaturday = firstSaturday.plusDays(4);
-        LOGGER.info("Wednesday After First Saturday : {}",wednesdayAfterFirstSaturday);
-
-        return currentDate.equals(wednesdayAfterFirstSaturday);
-
-    }
-    public Date currentDateofMonth() throws ParseException {
-        String currentDateString= new SimpleDateFormat("yyyy-MM-dd").format(new Date());
-        SimpleDateFormat sdformat = new SimpleDateFormat("yyyy-MM-dd");
-        Date currentDate = sdformat.parse(currentDateString);
-
-        System.out.println("current Date of month : >>>>>>>>>>> "+currentDate );
-
-        return currentDate;
-    }
-
-
     /**
      * Calculate start time.
      * @param hours int
@@ -365,332 +475,162 @@ public class IcmDailyJobStatus {
     }
 
     /**
-     * Format records.
-     * @param history  List
-     * @param complete boolean
-     * @return String
+     * Check if a scheduled job with an irregular schedule is expected to run today.
+     * @param job IcmJob
+     * @return boolean
      */
+    private boolean isScheduledToday( IcmJob job ) {
+        return calendar.isScheduled( job.getId(), LocalDate.now() );
+    }
 
-//    Modified Method
-    private String formatRecords( IcmJobHistory history, boolean complete ) {
-
-        if( excludedItems == null ) {
-            excludedItems = new ArrayList<>();
-            excludedItems.add( "commissionstatement_csv" );
-            excludedItems.add( "downlinehierarchycsv" );
-            excludedItems.add( "downlinehierarchypdf" );
-            excludedItems.add( "downlinehierarchyxls" );
-            excludedItems.add( "productionsummarycsv" );
-            excludedItems.add( "productionsummarypdf" );
-            excludedItems.add( "productionsummaryxls" );
-            excludedItems.add( "statementscsv" );
-            excludedItems.add( "statementspdf" );
-            excludedItems.add( "statementsxls" );
-            excludedItems.add( "GetUpdatesForSync" );
+    /**
+     * Format the job status snapshot as report rows.
+     * @param snapshot IcmJobStatusSnapshot
+     * @return String
+     */
+    private String formatSnapshot( IcmJobStatusSnapshot snapshot ) {
+        StringBuilder msg = new StringBuilder( snapshot.getSlots().size() * 256 );
+        try {
+            writeSnapshot( msg, snapshot );
         }
-
-
-        // Iterate over the history and filter out excluded items.
-
-            IcmJob job = jobMap.computeIfAbsent( history.getJobId(), i -> dao.getIcmJob( i ) );
-
-            if( history.getEnd() == null && history.getStart().isBefore( startDateTime ) ) {
-                LOGGER.warn( "Found in process job that started before start of window: {}" , history.getJobId() );
-            }
-
-
-        if( history==null && complete ) {
-            // Add empty record.
-            return "<tr valign=\"top\">" +
-                    "<td>ICM Jobs</td>" +
-                    "<td colspan=\"4\" align=\"center\">No jobs run during report window</td>" +
-                    "</tr>";
+        catch( IOException e ) {
+            // StringBuilder does not throw.
+            throw new UncheckedIOException( e );
         }
-
-
-
-
-        StringBuilder msg = new StringBuilder();
-
-
-
-
-                // Get data.
-                String desc = job.getDesc();
-                LocalDateTime start = history.getStart();
-                LocalDateTime end = history.getEnd();
-
-                // Returns a string and a decoration for the string.
-                String[] sts = getPayoutStatus( history ,desc);
-                String status = sts[0];
-                String decor = null;
-                if( sts.length == 2 ) {
-                    decor = sts[1];
-                }
-
-                // Add row to report.
-                msg.append( formatRow( desc, start, end, status, decor ) );
-
-
-
         return msg.toString();
     }
 
-    private String diaplayNotRunJob( IcmJob job) {
-
-        StringBuilder msg = new StringBuilder();
-
-
-        // Get data.
-        String desc = job.getDesc();
-
-
-        // Add row to report.
-        msg.append( formatRowNotRunJob( desc ) );
-
-
-
-        return msg.toString();
-    }
-
-    private String formatRowNotRunJob(String desc){
-        String row = "<tr valign=\"top\">"
-                +"<td>{0}</td>";
-
-        return MessageFormat.format(row,desc);
-
-    }
-
-    /*
-    private String formatBackGroundColor(String status){
-        if(status.equalsIgnoreCase("inprogress"))
-            return
-
-    }
-
+    /**
+     * Write the job status snapshot as report rows.
+     * @param out      Appendable
+     * @param snapshot IcmJobStatusSnapshot
+     * @throws IOException exception
      */
-
-
-    private String formatRecords( List<IcmJobHistory> history, boolean complete ) {
-
-        if( excludedItems == null ) {
-            excludedItems = new ArrayList<>();
-            excludedItems.add( "commissionstatement_csv" );
-            excludedItems.add( "downlinehierarchycsv" );
-            excludedItems.add( "downlinehierarchypdf" );
-            excludedItems.add( "downlinehierarchyxls" );
-            excludedItems.add( "productionsummarycsv" );
-            excludedItems.add( "productionsummarypdf" );
-            excludedItems.add( "productionsummaryxls" );
-            excludedItems.add( "statementscsv" );
-            excludedItems.add( "statementspdf" );
-            excludedItems.add( "statementsxls" );
-            excludedItems.add( "GetUpdatesForSync" );
-        }
-
-        List<IcmJobHistory> keepers = new ArrayList<>();
-
-        // Iterate over the history and filter out excluded items.
-        for( IcmJobHistory h : history ) {
-            IcmJob job = jobMap.computeIfAbsent( h.getJobId(), i -> dao.getIcmJob( i ) );
-            if( excludedItems.contains( job.getName() ) ) {
+    private void writeSnapshot( Appendable out, IcmJobStatusSnapshot snapshot ) throws IOException {
+        List<IcmJobSlotStatus> slots = snapshot.getSlots();
+        int i = 0;
+        while( i < slots.size() ) {
+            IcmJobSlotStatus slot = slots.get( i );
+            if( slot.getState() == IcmJobSlotStatus.State.COMPLETED ) {
+                // Completed runs of the same schedule slot are adjacent.
+                int j = i + 1;
+                while( j < slots.size() && slots.get( j ).getState() == IcmJobSlotStatus.State.COMPLETED
+                        && slots.get( j ).getSlot() == slot.getSlot() ) {
+                    j++;
+                }
+                writeRecords( out, slots.subList( i, j ) );
+                i = j;
                 continue;
             }
-
-            if( h.getEnd() == null && h.getStart().isBefore( startDateTime ) ) {
-                LOGGER.warn( "Found in process job that started before start of window: " + h.getJobId() );
+            if( slot.getState() == IcmJobSlotStatus.State.IN_PROGRESS ) {
+                writeRecord( out, slot );
             }
-
-            keepers.add( h );
-        }
-
-        if( keepers.isEmpty() && complete ) {
-            // Add empty record.
-            return "<tr valign=\"top\">" +
-                    "<td>ICM Jobs</td>" +
-                    "<td colspan=\"4\" align=\"center\">No jobs run during report window</td>" +
-                    "</tr>";
-        }
-
-
-        StringBuilder msg = new StringBuilder();
-
-        // Iterate over the keepers.
-        for( IcmJobHistory h : keepers ) {
-
-            try {
-                IcmJob job = jobMap.computeIfAbsent( h.getJobId(), i -> dao.getIcmJob( i ) );
-
-                // Get data.
-                String desc = job.getDesc();
-                LocalDateTime start = h.getStart();
-                LocalDateTime end = h.getEnd();
-
-                // Returns a string and a decoration for the string.
-                String[] sts = getPayoutStatus( h,desc );
-                String status = sts[0];
-                String decor = null;
-                if( sts.length == 2 ) {
-                    decor = sts[1];
-                }
-
-                // Add row to report.
-                msg.append( formatRow( desc, start, end, status, decor ) );
-            }
-            catch( Exception e ) {
-                LOGGER.error( "Could not format job history: " , e );
-                LogUtil.printStackTrace( e );
+            else {
+                IcmReportRenderer.notRun( out, slot.getJob().getDesc() );
             }
+            i++;
         }
-
-        return msg.toString();
     }
 
     /**
-     * Get the history status.
-     * @param h IcmJobHistory
-     * @return String[]
+     * Write completed runs of one schedule slot, leaving out excluded jobs.
+     * @param out  Appendable
+     * @param runs List
+     * @throws IOException exception
      */
-    private String[] getStatus( IcmJobHistory h ) {
-        String status = "...";
-        String decor = "<span style=\"color:red;\">{0}</span>";
-        if( h.getEnd() != null ) {
-            // Complete
-            status = ( h.isSuccess() ? "Complete" : "Error" );
-            decor = ( h.isSuccess() ? "<span style=\"color:green;\">{0}</span>" : "<span style=\"color:red;\">{0}</span>" );
-        }
-        else {
-            // In Progress
-            // Get the current task.
-            String task = getTaskName( h );
-            if( StringUtil.isValid( task ) ) {
-                // Add task to report.
-                status = "Task[" + task + "]";
-                decor = "<span style=\"color:red;\">{0}</span>";
+    private void writeRecords( Appendable out, List<IcmJobSlotStatus> runs ) throws IOException {
+
+        int written = 0;
+
+        // Iterate over the runs and filter out excluded items.
+        for( IcmJobSlotStatus run : runs ) {
+            if( EXCLUDED_ITEMS.contains( run.getJob().getName() ) ) {
+                continue;
             }
+            writeRecord( out, run );
+            written++;
         }
-        return new String[]{ status, decor };
-    }
-// Created By Akhil
-    private String[] getPayoutStatus( IcmJobHistory h ,String desc) {
-        String status = "...";
-        String decor = "<span style=\"color:red;\">{0}</span>";
-        if( h.getEnd() != null && desc.toLowerCase().contains("payout") ) {
-            // Complete
-            status = ( h.isSuccess() ? "Complete" : "Error" );
-            decor = ( h.isSuccess() ? "<span style=\"color:white;background:green\">{0}</span>" : "<span style=\"background:red;color:white;\">{0}</span>" );
-        }else if(h.getEnd() != null){
-            status = ( h.isSuccess() ? "Complete" : "Error" );
-            decor = ( h.isSuccess() ? "<span style=\"color:green;\">{0}</span>" : "<span style=\"color:red;\">{0}</span>" );
-        }
-        else {
 
-            // In Progress
-            // Get the current task.
-            String task = getTaskName( h );
-            if( StringUtil.isValid( task ) ) {
-                // Add task to report.
-                status = "Task[" + task + "]";
-                if(desc.toLowerCase().contains("payout")){
-                    decor = "<span style=\"background:yellow;color:red;\">{0}</span>";
-                }
-                else decor = "<span style=\"color:red;\">{0}</span>";
-            }
+        if( written == 0 ) {
+            // Add empty record.
+            IcmReportRenderer.message( out, "ICM Jobs", "No jobs run during report window" );
         }
-        return new String[]{ status, decor };
     }
 
-    // Ends here
-
-
-
-
     /**
-     * Get active task name for job history.
-     * @param h IcmJobHistory
-     * @return String
+     * Write one completed or in progress slot.
+     * @param out  Appendable
+     * @param slot IcmJobSlotStatus
+     * @throws IOException exception
      */
-    private String getTaskName( IcmJobHistory h ) {
+    private void writeRecord( Appendable out, IcmJobSlotStatus slot ) throws IOException {
+        try {
+            // Get data.
+            String desc = slot.getJob().getDesc();
 
-        String task = "In Progress";
+            // A status and a decoration for the status.
+            String status = getPayoutStatus( slot );
+            IcmHtmlTemplate decor = getPayoutDecor( slot, desc );
 
-        if( h == null ) {
-            LOGGER.warn( "getTaskName: history is null!" );
-            return task;
+            // Add row to report.
+            IcmReportRenderer.row( out, desc, slot.getStart(), slot.getEnd(), status, decor );
         }
-        List<IcmJobTaskHistory> jobTaskHistory = dao.getIcmJobTaskHistory( h.getId() );
-        if( jobTaskHistory == null ) {
-            LOGGER.warn( "getTaskName: history list is null for: " + h.getId() );
-            return task;
+        catch( RuntimeException e ) {
+            LOGGER.error( "Could not format job history: " , e );
+            LogUtil.printStackTrace( e );
         }
+    }
 
-        LOGGER.info( "jobTaskHistory: " + jobTaskHistory.size() );
+// Created By Akhil
+    private String getPayoutStatus( IcmJobSlotStatus slot ) throws IOException {
+        if( slot.getEnd() != null ) {
+            // Complete
+            return ( slot.isSuccess() ? "Complete" : "Error" );
+        }
+        // In Progress
+        // Get the current task.
+        String task = slot.getCurrentTask();
+        if( StringUtil.isValid( task ) ) {
+            // Add task to report.
+            StringBuilder status = new StringBuilder( task.length() + 6 ).append( "Task[" );
+            IcmHtmlTemplate.escape( status, task );
+            return status.append( ']' ).toString();
+        }
+        return "...";
+    }
 
-        int taskId = 0;
-        int lastTaskId = 0;
-        // Iterate over the history tasks.
-        for( IcmJobTaskHistory jth : jobTaskHistory ) {
-            LOGGER.info( "jobTaskHistory: " + jth );
-            // Find task with no end date.
-            if( jth.getEnd() == null ) {
-                taskId = jth.getIcmJobTaskId();
-                LOGGER.info( "task has no end date: " + taskId );
-                break;
-            }
-            if( lastTaskId == 0 || jth.getIcmJobTaskId() > lastTaskId ) {
-                taskId = jth.getIcmJobTaskId();
-                LOGGER.info( "task has end date: " + taskId );
+    private IcmHtmlTemplate getPayoutDecor( IcmJobSlotStatus slot, String desc ) {
+        boolean payout = desc.toLowerCase().contains( "payout" );
+        if( slot.getEnd() != null ) {
+            if( payout ) {
+                return ( slot.isSuccess() ? IcmReportRenderer.WHITE_ON_GREEN : IcmReportRenderer.WHITE_ON_RED );
             }
-            lastTaskId = jth.getIcmJobTaskId();
+            return ( slot.isSuccess() ? IcmReportRenderer.GREEN : IcmReportRenderer.RED );
         }
-        LOGGER.info( "found task id: {}" ,taskId );
-
-        if( taskId == 0 ) {
-            LOGGER.warn( "getTaskName: no active tasks found for: " + h.getId() );
-            return task;
-        }
-
-        LOGGER.info( "Getting job/task: " + h.getJobId() + "/" + taskId );
-        IcmJobTask jobTask = dao.getIcmJobTask( h.getJobId(), taskId );
-        if( jobTask == null ) {
-            LOGGER.warn( "getTaskName: task not found for: " + h.getJobId() + "/" + taskId );
-            return "Not Found";
-        }
-
-        task = jobTask.getTaskName() + "/" + taskId;
-        LOGGER.info( "getTaskName: {}" , task );
-        return task;
+        return ( payout && StringUtil.isValid( slot.getCurrentTask() ) ? IcmReportRenderer.RED_ON_YELLOW : IcmReportRenderer.RED );
     }
 
+    // Ends here
+
     /**
      * Format row.
      * @param name   String
      * @param start  LocalDateTime
      * @param end    LocalDateTime
      * @param status String
+     * @param decor  IcmHtmlTemplate
      * @return String
      */
-    private String formatRow( String name, LocalDateTime start, LocalDateTime end, String status, String statusDecor ) {
-        // Calculate total time.
-        long milliseconds = Duration.between( start, ( end != null ? end : LocalDateTime.now() ) ).toMillis();
-        String duration = DurationFormatUtils.formatDuration( Math.abs( milliseconds ), "HH:mm:ss", true );
-        // Name | StartDate | EndDate/In Progress | Time | Complete/Error/TaskName
-        String row = "<tr valign=\"top\">" +
-                "<td>{0}</td>" +
-                "<td align=\"center\">{1}</td>" +
-                "<td align=\"center\" " + ( end == null ? " style=\"color:red\"" : "" ) + ">{2}</td>" +
-                "<td align=\"right\"  " + ( end == null ? " style=\"color:red\"" : "" ) + ">{3}</td>" +
-                "<td align=\"center\">{4}</td>" +
-                "</tr>";
-        String sd = start.format( mmddyyyyhhmmssa );
-        String ed = ( end != null ? end.format( mmddyyyyhhmmssa ) : "In Progress" );
-        // Output message.                                                 0     1   2   3     4
-        LOGGER.info(MessageFormat.format( "[{0}][{1}][{2}][{3}][{4}]", name, sd, ed, duration, status ) );
-        if( StringUtil.isValid( statusDecor ) ) {
-            status = MessageFormat.format( statusDecor, status );
-        }
-        // Add row to report.             0     1   2   3     4
-        return MessageFormat.format( row, name, sd, ed, duration, status );
+    private String formatRow( String name, LocalDateTime start, LocalDateTime end, String status, IcmHtmlTemplate decor ) {
+        StringBuilder row = new StringBuilder( 256 );
+        try {
+            IcmReportRenderer.row( row, name, start, end, status, decor );
+        }
+        catch( IOException e ) {
+            // StringBuilder does not throw.
+            throw new UncheckedIOException( e );
+        }
+        return row.toString();
     }
 
     /**
@@ -705,8 +645,8 @@ public class IcmDailyJobStatus {
         runs = ( runs != null ? runs : new ArrayList<>() );
         LOGGER.info( "Found runs: {}" , runs.size() );
 
-        Map<String, Integer> types = getFdsCount();
-        types = ( types != null ? types : new HashMap<>() );
+        // Null when the count is unknown.
+        Map<String, Integer> types = getFdsCount( runs.stream().anyMatch( r -> r.getEnd() == null ) );
 
         // Check for FDS runs.
         if( !runs.isEmpty() ) {
@@ -716,10 +656,10 @@ public class IcmDailyJobStatus {
                 LocalDateTime start = run.getStart();
                 LocalDateTime end = run.getEnd();
                 int count = run.getCount();
-                int total = types.getOrDefault( type, 0 );
+                String total = ( types != null ? String.valueOf( types.getOrDefault( type, 0 ) ) : "unknown" );
                 String status = ( end != null ? "Complete (" + count + ")" : "In Progress (" + count + ")" )
                         + "<br/>Total (" + total + ")";
-                String decor = "<span style=\"color:" + ( end != null ? "green" : "red" ) + ";\">{0}</span>";
+                IcmHtmlTemplate decor = ( end != null ? IcmReportRenderer.GREEN : IcmReportRenderer.RED );
                 // Format FDS details.
                 s.append( formatRow( "FDS Status(" + type + ")", start, end, status, decor ) );
             }
@@ -733,27 +673,13 @@ public class IcmDailyJobStatus {
     }
 
     /**
-     * Get FDS count.
-     * @return Map
+     * Get FDS count. The stored totals of the payout month are brought up to date with the
+     * statement runs of that month that ended since they were last saved; FDS is only counted in full when
+     * the month has no totals yet, or when runs without a payout month ended that may be for it.
+     * @param runInProgress boolean true if a statement run is in progress, so a full count is not stored
+     * @return Map or null when unknown
      */
-    private Map<String, Integer> getFdsCount() {
-
-        // Get FDS settings from properties file.
-        ResourceBundle resource = IcmUtil.getInstance().getResource();
-        String authendpoint = resource.getString( RunIcmStatements.STATEMENTS_FDSAUTHENDPOINT );
-        String endpoint = resource.getString( RunIcmStatements.STATEMENTS_FDSENDPOINT );
-        String spaceId = resource.getString( RunIcmStatements.STATEMENTS_FDSSPACEID );
-        String clientId = resource.getString( RunIcmStatements.STATEMENTS_FDSCLIENTID );
-        String clientSecret = resource.getString( RunIcmStatements.STATEMENTS_FDSCLIENTSECRET );
-        String grantType = resource.getString( RunIcmStatements.STATEMENTS_FDSGRANTTYPE );
-        String timeout = resource.getString( RunIcmStatements.STATEMENTS_FDSTIMEOUT );
-        int t = ( StringUtil.isNumeric( timeout ) ? Integer.parseInt( timeout ) : 500 );
-        String count = resource.getString( RunIcmStatements.STATEMENTS_FDSCOUNT );
-        int c = ( StringUtil.isValid( count ) && StringUtils.isNumeric( count ) ? Integer.parseInt( count ) : 60 );
-        FDSCloudManager fds = new FDSCloudManager( authendpoint, endpoint, clientId, clientSecret, grantType, spaceId, t, c );
-        // Create auth token.
-        String token = fds.createOAuthToken();
-
+    private Map<String, Integer> getFdsCount( boolean runInProgress ) {
         // Get payout date from config table.
         String payout = dao.getConfig( Config.ICM_STATEMENTS_PAYOUTDATE );
         LocalDate po = LocalDate.parse( payout, DateTimeFormatter.BASIC_ISO_DATE );
@@ -762,57 +688,89 @@ public class IcmDailyJobStatus {
         LOGGER.info( "Month: {}" , m );
         LOGGER.info( "Year:  {}" , y );
 
-        // Get statements from FDS.
-        List<FDSDocument> statements = fds.getStatementExternalId( token, null, y, m, null );
-        if( statements == null ) {
-            LOGGER.warn( "Statement list is null!" );
-            return null;
+        IcmFdsTotals totals = dao.getFdsStatementTotals( y, m );
+        if( totals != null && dao.hasUnmatchedStatementRuns( totals ) ) {
+            LOGGER.info( "Statement runs without a payout month since {}, counting FDS", totals.getWatermark() );
         }
-        LOGGER.info( "Statements: {}" , statements.size() );
-        Map<String, Integer> types = new HashMap<>();
-        if( statements.size() == 0 ) {
-            LOGGER.warn( "Statement list is empty!" );
-            return types;
+        else if( totals != null ) {
+            if( dao.addStatementRunCounts( totals ) ) {
+                dao.updateFdsStatementTotals( totals );
+            }
+            LOGGER.info( "FDS totals: {}", totals );
+            return totals.getCounts();
         }
 
-        // Create map to count statement types.
-        types.put( RunIcmStatements.CSV, 0 );
-        types.put( RunIcmStatements.XLS, 0 );
-        types.put( RunIcmStatements.PDF, 0 );
-
-        // Iterate over statements.
-        for( FDSDocument d : statements ) {
-            // Count all the different types.
-            String type = ( RunIcmStatements.XLSX.equalsIgnoreCase( d.getType() ) ? RunIcmStatements.XLS : d.getType() );
-            types.put( type, types.getOrDefault( type, 0 ) + 1 );
+        LocalDateTime counted = LocalDateTime.now();
+        Map<String, Integer> types = getFdsCounter().count( y, m );
+        // A run still writing would be counted in part now and in full when it ends.
+        if( types != null && !types.isEmpty() && !runInProgress ) {
+            dao.updateFdsStatementTotals( new IcmFdsTotals( y, m, types, counted ) );
         }
-
         return types;
     }
 
     /**
-     * @param types Map
+     * Get the FDS counter, created on first use and kept so the token is reused between reports.
+     * @return IcmFdsCounter
+     */
+    private IcmFdsCounter getFdsCounter() {
+        synchronized( fdsLock ) {
+            if( fdsCounter == null ) {
+                // Get FDS settings from properties file.
+                ResourceBundle resource = IcmUtil.getInstance().getResource();
+                String authendpoint = resource.getString( RunIcmStatements.STATEMENTS_FDSAUTHENDPOINT );
+                String endpoint = resource.getString( RunIcmStatements.STATEMENTS_FDSENDPOINT );
+                String spaceId = resource.getString( RunIcmStatements.STATEMENTS_FDSSPACEID );
+                String clientId = resource.getString( RunIcmStatements.STATEMENTS_FDSCLIENTID );
+                String clientSecret = resource.getString( RunIcmStatements.STATEMENTS_FDSCLIENTSECRET );
+                String grantType = resource.getString( RunIcmStatements.STATEMENTS_FDSGRANTTYPE );
+                String timeout = resource.getString( RunIcmStatements.STATEMENTS_FDSTIMEOUT );
+                int t = ( StringUtil.isNumeric( timeout ) ? Integer.parseInt( timeout ) : 500 );
+                String count = resource.getString( RunIcmStatements.STATEMENTS_FDSCOUNT );
+                int c = ( StringUtil.isValid( count ) && StringUtils.isNumeric( count ) ? Integer.parseInt( count ) : 60 );
+                FDSCloudManager fds = new FDSCloudManager( authendpoint, endpoint, clientId, clientSecret, grantType, spaceId, t, c );
+                fdsCounter = new IcmFdsCounter( new IcmFdsCounter.FdsSource( fds ) );
+            }
+            return fdsCounter;
+        }
+    }
+
+    /**
+     * @param types Map or null when unknown
      * @return String
      */
     private String getFdsNoRuns( Map<String, Integer> types ) {
-        StringBuilder s = new StringBuilder();
-        s.append( "<tr valign=\"top\">" );
-        s.append( "<td>FDS Status</td>" );
+        if( types == null ) {
+            return formatMessage( "FDS Status", "No FDS statement runs during the report window<br/>FDS Totals: unknown" );
+        }
         // If statements in FDS, then:
         if( types.isEmpty() ) {
-            s.append( "<td colspan=\"4\" align=\"center\">No FDS statements created for the current month</td>" );
+            return formatMessage( "FDS Status", "No FDS statements created for the current month" );
         }
         // Else, display message with FDS statement counts.
-        else {
-            s.append( "<td colspan=\"4\" align=\"center\">No FDS statement runs during the report window" );
-            s.append( "<br/>FDS Totals:" );
-            for( Map.Entry<String, Integer> type : types.entrySet() ) {
-                s.append( "<br/>" ).append( type.getKey() ).append( ":" ).append( type.getValue() );
-            }
-            s.append( "</td>" );
+        StringBuilder s = new StringBuilder( "No FDS statement runs during the report window<br/>FDS Totals:" );
+        for( Map.Entry<String, Integer> type : types.entrySet() ) {
+            s.append( "<br/>" ).append( type.getKey() ).append( ":" ).append( type.getValue() );
         }
-        s.append( "</tr>" );
-        return s.toString();
+        return formatMessage( "FDS Status", s.toString() );
+    }
+
+    /**
+     * Format a row with a message across the time and status columns.
+     * @param name    String
+     * @param message String HTML
+     * @return String
+     */
+    private String formatMessage( String name, String message ) {
+        StringBuilder row = new StringBuilder( 128 + message.length() );
+        try {
+            IcmReportRenderer.message( row, name, message );
+        }
+        catch( IOException e ) {
+            // StringBuilder does not throw.
+            throw new UncheckedIOException( e );
+        }
+        return row.toString();
     }
 
     /**
@@ -837,10 +795,7 @@ public class IcmDailyJobStatus {
             String d = ( !unsync.isEmpty() ? "<span style=\"color:red;\">" +
                     "<br/>Queued: " + unsync.size() + "" +
                     "<br/>Last: " + last + "</span>" : "" );
-            return "<tr valign=\"top\">" +
-                    "<td>ICM Sync (LPS)</td>" +
-                    "<td colspan=\"4\" align=\"center\">No sync done during report window" + d + "</td>" +
-                    "</tr>";
+            return formatMessage( "ICM Sync (LPS)", "No sync done during report window" + d );
         }
 
         // Iterate over sync data to get start/end dates.
@@ -852,7 +807,7 @@ public class IcmDailyJobStatus {
 
         // Set status.
         String status = ( end != null ? "Complete (" + lastSync.getCount() + ")" : "Synced:" + lastSync.getCount() + "<br/>Queued:" + unsync.size() + "<br/>Last:" + last );
-        String decor = ( end != null ? "<span style=\"color:green;\">{0}</span>" : "<span style=\"color:red;\">{0}</span>" );
+        IcmHtmlTemplate decor = ( end != null ? IcmReportRenderer.GREEN : IcmReportRenderer.RED );
 
         // Format sync details.
         s.append( formatRow( "ICM Sync (LPS)(" + lastSync.getType() + ")", start, end, status, decor ) );
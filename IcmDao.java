@@ -2,6 +2,7 @@ package com.uhc.optum.icm.webservice;
 
 import com.uhc.optum.dao.MainDao;
 import com.uhc.optum.exceptions.DBOperationsException;
+import com.uhc.optum.util.Config;
 import com.uhc.optum.util.DateUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,8 +12,12 @@ import java.sql.*;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.Date;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * DAO for reading and updating ICM data.
@@ -23,30 +28,269 @@ public class IcmDao extends MainDao {
 
     private static final Logger LOGGER = LogManager.getLogger( IcmDao.class );
 
+    /**
+     * Active batch schedule between the start time of the first day and 11:00 of the next day,
+     * ordered by day and time. Takes start, start, start and end as parameters.
+     */
+    private static final String BATCH_SCHEDULE_FROM = "from icm_batch_schedule ibs "
+        + "inner join icm_job j on j.icm_job_id=ibs.icm_job_id "
+        + "where ibs.active=1 "
+        + "and ((ibs.schedule_day in (select DATENAME(WEEKDAY,?)) "
+        + "and ibs.schedule_time >=cast(format(DATEPART(hour, ?),'0#') as varchar)+cast(format(DATEPART(minute, ?),'0#') as varchar)) "
+        + "OR "
+        + "(ibs.schedule_day in (select DATENAME(WEEKDAY,?)) "
+        + " And ibs.schedule_time <= 1100)) "
+        + "order by CASE ibs.schedule_day "
+        + "WHEN 'Sunday' THEN 1 "
+        + "WHEN 'Monday' THEN 2 "
+        + "WHEN 'Tuesday' THEN 3 "
+        + "WHEN 'Wednesday' THEN 4 "
+        + "WHEN 'Thursday' THEN 5 "
+        + "WHEN 'Friday' THEN 6 "
+        + "ELSE 7  END , "
+        + "ibs.schedule_time,j.icm_job_id ";
+
+    /**
+     * Rows per set-based write. SQL Server allows 2100 parameters per statement, which
+     * leaves room for 250 rows of up to 8 columns.
+     */
+    private static final int MERGE_BATCH_SIZE = 250;
+
+    /** Maximum number of prepared statements kept open per connection. */
+    private static final int STATEMENT_CACHE_SIZE = 32;
+
+    private static final String SQL_GET_JOB = "SELECT * " +
+            "FROM  icm_job " +
+            "WHERE icm_job_id = ?";
+
+    private static final String SQL_GET_JOB_BY_NAME = "SELECT * " +
+            "FROM   icm_job " +
+            "WHERE  lower(job_name) = ?";
+
+    private static final String SQL_GET_JOB_TASKS = "SELECT   * " +
+            "FROM     icm_job_task " +
+            "WHERE    icm_job_id = ? " +
+            "ORDER BY task_id";
+
+    private static final String SQL_GET_ALL_JOB_TASKS = "SELECT   * " +
+            "FROM     icm_job_task " +
+            "ORDER BY icm_job_id, task_id";
+
+    private static final String SQL_GET_JOB_TASK = "SELECT   * " +
+            "FROM     icm_job_task " +
+            "WHERE    icm_job_id = ? and task_id = ? " +
+            "ORDER BY task_id";
+
+    private static final String SQL_GET_COMPLETED_JOB = "SELECT   *  " +
+            " FROM   icm_job_history  " +
+            "WHERE    start_date >= ? and end_date <= ?" +
+            " and icm_job_id = ? " +
+            "ORDER BY start_date";
+
+    // Completed job history in a window.
+    private static final String SQL_GET_JOB_HISTORY_WINDOW = "SELECT   * " +
+            "FROM     icm_job_history " +
+            "WHERE    start_date >= ? and end_date <= ? " +
+            "ORDER BY start_date";
+
+    private static final String SQL_GET_JOB_TASK_HISTORY = "SELECT   * " +
+            "FROM     icm_job_task_history " +
+            "WHERE    icm_job_history_id = ? " +
+            "ORDER BY start_date";
+
+    private static final String SQL_GET_STATEMENT = "SELECT   party_id, file_type, year, month, bytes, rowct, stime " +
+            "FROM     icm_statement " +
+            "WHERE    party_id = ? and" +
+            "         file_type = ? and" +
+            "         year = ? and" +
+            "         month = ? ";
+
+    private static final String SQL_UPDATE_STATEMENT = "update icm_statement " +
+            "set    bytes        = ?, " +
+            "       rowct        = ?, " +
+            "       stime        = ?, " +
+            "       date_updated = ? " +
+            "where  party_id     = ? and " +
+            "       file_type    = ? and " +
+            "       year         = ? and " +
+            "       month        = ? ";
+
+    private static final String SQL_INSERT_STATEMENT = "insert into icm_statement " +
+            " ( party_id, file_type, year, month, " +
+            "   bytes, rowct, stime, " +
+            "   date_added, date_updated ) " +
+            " values ( ?, ?, ?, ?, " +
+            "          ?, ?, ?, " +
+            "          ?, ?)";
+
+    private final IcmJobCatalog jobCatalog = new IcmJobCatalog( this::getIcmJobs );
+    private final IcmJobTaskCatalog jobTaskCatalog = new IcmJobTaskCatalog( this::getAllIcmJobTasks );
+    // Statement caches by connection; one without a pool, one per pooled connection with it.
+    private final Map<Connection, IcmStatementCache> statementCaches = new IdentityHashMap<>();
+    private volatile IcmConnectionPool connectionPool;
+    private final ThreadLocal<Connection> threadConnection = new ThreadLocal<>();
+    private int fetchSize = 0;
+
     public IcmDao( String name ) {
         super( name );
     }
 
+    /**
+     * Set the time to live of the job and job task catalogs in milliseconds. Zero or less disables them.
+     * @param ttl long
+     */
+    public void setJobCatalogTtl( long ttl ) {
+        jobCatalog.setTtl( ttl );
+        jobTaskCatalog.setTtl( ttl );
+    }
+
+    /**
+     * Drop the cached job and job task catalogs.
+     */
+    public void invalidateJobCatalog() {
+        jobCatalog.invalidate();
+        jobTaskCatalog.invalidate();
+    }
+
+    /**
+     * Set the JDBC fetch size used by the history queries. Zero leaves the driver default.
+     * @param fetchSize int
+     */
+    public void setFetchSize( int fetchSize ) {
+        this.fetchSize = Math.max( 0, fetchSize );
+    }
+
+    /**
+     * Use a connection pool. Each thread then borrows its own connection on first use and keeps
+     * it until {@link #releaseConnection()}, so several threads can share this DAO.
+     * @param connectionPool IcmConnectionPool or null to use the MainDao connection
+     */
+    public void setConnectionPool( IcmConnectionPool connectionPool ) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * @return boolean true if each thread gets its own connection from a pool
+     */
+    public boolean isPooled() {
+        return connectionPool != null;
+    }
+
+    /**
+     * @return IcmConnectionPool or null without a pool
+     */
+    public IcmConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Get the connection of the current thread, borrowing one from the pool when it has none.
+     * Without a pool, the MainDao connection.
+     * @return Connection
+     */
+    @Override
+    public Connection getConnection() {
+        IcmConnectionPool pool = connectionPool;
+        if( pool == null ) {
+            return super.getConnection();
+        }
+        Connection connection = threadConnection.get();
+        if( connection == null ) {
+            try {
+                connection = pool.borrow();
+            }
+            catch( SQLException e ) {
+                throw new DBOperationsException( "Could not get connection: " + e, true );
+            }
+            threadConnection.set( connection );
+        }
+        return connection;
+    }
+
+    /**
+     * Return the connection of the current thread to the pool. Call at the end of each
+     * operation on a pooled DAO; does nothing without a pool.
+     */
+    public void releaseConnection() {
+        Connection connection = threadConnection.get();
+        if( connection != null ) {
+            threadConnection.remove();
+            IcmConnectionPool pool = connectionPool;
+            if( pool != null ) {
+                pool.release( connection );
+            }
+        }
+    }
+
+    /**
+     * Get a cached prepared statement for the current connection.
+     * The statement stays open for reuse, so callers must not close it.
+     * Only the lookups run many times per report use the cache. The other SQL_ queries run a
+     * few times per report and prepare and close their statement, as do inserts returning
+     * generated keys and SQL built per call.
+     * @param sql String
+     * @return PreparedStatement
+     * @throws SQLException exception
+     */
+    protected PreparedStatement prepareCached( String sql ) throws SQLException {
+        Connection connection = getConnection();
+        IcmStatementCache cache;
+        synchronized( statementCaches ) {
+            cache = statementCaches.get( connection );
+            if( cache == null ) {
+                // Drop the caches of connections that have been closed or, without a pool, replaced.
+                Iterator<Map.Entry<Connection, IcmStatementCache>> it = statementCaches.entrySet().iterator();
+                while( it.hasNext() ) {
+                    Map.Entry<Connection, IcmStatementCache> e = it.next();
+                    if( connectionPool == null || e.getKey().isClosed() ) {
+                        e.getValue().close();
+                        it.remove();
+                    }
+                }
+                cache = new IcmStatementCache( connection, STATEMENT_CACHE_SIZE );
+                statementCaches.put( connection, cache );
+            }
+        }
+        return cache.prepare( sql );
+    }
+
+    /**
+     * Get the prepared statement cache hit counts.
+     * @return String
+     */
+    public String getStatementCacheStats() {
+        synchronized( statementCaches ) {
+            if( statementCaches.isEmpty() ) {
+                return "[not used]";
+            }
+            StringBuilder sb = new StringBuilder();
+            for( IcmStatementCache cache : statementCaches.values() ) {
+                sb.append( cache );
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final String SQL_GET_JOBS = "SELECT   * " +
+            "FROM     icm_job " +
+            "ORDER BY job_name";
+
     /**
      * Get all jobs.
      * @return List
      */
     public List<IcmJob> getIcmJobs() {
         List<IcmJob> jobs = new ArrayList<>();
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "SELECT   * " );
-        sql.append( "FROM     icm_job " );
-        sql.append( "ORDER BY job_name" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_JOBS );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_JOBS ) ) {
             ResultSet result = statement.executeQuery();
             while( result.next() ) {
                 jobs.add( mapJob( result ) );
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get jobs: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_JOBS );
+            throw new DBOperationsException( "Could not get jobs: " + e, SQL_GET_JOBS, true );
         }
         return jobs;
     }
@@ -58,22 +302,23 @@ public class IcmDao extends MainDao {
      * @throws DBOperationsException Exception
      */
     public IcmJob getIcmJob( int jobId ) throws DBOperationsException {
-        IcmJob job = null;
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "SELECT * " );
-        sql.append( "FROM  icm_job " );
-        sql.append( "WHERE icm_job_id = ?" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        IcmJob job = jobCatalog.get( jobId );
+        if( job != null ) {
+            return job;
+        }
+        LOGGER.debug( "SQL: " + SQL_GET_JOB );
+        try {
+            PreparedStatement statement = prepareCached( SQL_GET_JOB );
             statement.setInt( 1, jobId );
-            ResultSet result = statement.executeQuery();
-            if( result.next() ) {
-                job = mapJob( result );
+            try( ResultSet result = statement.executeQuery() ) {
+                if( result.next() ) {
+                    job = mapJob( result );
+                }
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job by id [" + jobId + "]: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_JOB );
+            throw new DBOperationsException( "Could not get job by id [" + jobId + "]: " + e, SQL_GET_JOB, true );
         }
         return job;
     }
@@ -88,22 +333,23 @@ public class IcmDao extends MainDao {
         if( name == null ) {
             throw new DBOperationsException( "name is null" );
         }
-        IcmJob job = null;
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "SELECT * " );
-        sql.append( "FROM   icm_job " );
-        sql.append( "WHERE  lower(job_name) = ?" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        IcmJob job = jobCatalog.getByName( name );
+        if( job != null ) {
+            return job;
+        }
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_BY_NAME );
+        try {
+            PreparedStatement statement = prepareCached( SQL_GET_JOB_BY_NAME );
             statement.setString( 1, name );
-            ResultSet result = statement.executeQuery();
-            if( result.next() ) {
-                job = mapJob( result );
+            try( ResultSet result = statement.executeQuery() ) {
+                if( result.next() ) {
+                    job = mapJob( result );
+                }
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job by name [" + name + "]: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_JOB_BY_NAME );
+            throw new DBOperationsException( "Could not get job by name [" + name + "]: " + e, SQL_GET_JOB_BY_NAME, true );
         }
         return job;
     }
@@ -133,6 +379,11 @@ public class IcmDao extends MainDao {
         }
     }
 
+    private static final String SQL_GET_JOB_DETAILS = "SELECT j.job_name, d.* " +
+            "FROM   icm_job j, icm_job_detail d " +
+            "WHERE  j.icm_job_id = d.icm_job_id and " +
+            "j.icm_job_id = ?";
+
     /**
      * Get job details.
      * @param icmJobId int
@@ -140,13 +391,8 @@ public class IcmDao extends MainDao {
      */
     public List<IcmJobDetail> getIcmJobDetails( int icmJobId ) throws DBOperationsException {
         List<IcmJobDetail> details = new ArrayList<>();
-        StringBuilder sql = new StringBuilder();
-        sql.append( "SELECT j.job_name, d.* " );
-        sql.append( "FROM   icm_job j, icm_job_detail d " );
-        sql.append( "WHERE  j.icm_job_id = d.icm_job_id and " );
-        sql.append( "j.icm_job_id = ?" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_DETAILS );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_JOB_DETAILS ) ) {
             statement.setInt( 1, icmJobId );
             ResultSet result = statement.executeQuery();
             while( result.next() ) {
@@ -164,12 +410,17 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job details[" + icmJobId + "]: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_JOB_DETAILS );
+            throw new DBOperationsException( "Could not get job details[" + icmJobId + "]: " + e, SQL_GET_JOB_DETAILS, true );
         }
         return details;
     }
 
+    private static final String SQL_GET_JOB_DETAIL = "SELECT * " +
+            "FROM   icm_job_detail " +
+            "WHERE  icm_job_id = ? and " +
+            "       name = ?";
+
     /**
      * Get job detail.
      * @param icmJobId int
@@ -178,13 +429,8 @@ public class IcmDao extends MainDao {
      * @throws DBOperationsException exception
      */
     public String getIcmJobDetail( int icmJobId, String name ) throws DBOperationsException {
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "SELECT * " );
-        sql.append( "FROM   icm_job_detail " );
-        sql.append( "WHERE  icm_job_id = ? and " );
-        sql.append( "       name = ?" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_DETAIL );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_JOB_DETAIL ) ) {
             statement.setInt( 1, icmJobId );
             statement.setString( 2, name );
             ResultSet result = statement.executeQuery();
@@ -202,35 +448,92 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job detail[" + name + "]: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_JOB_DETAIL );
+            throw new DBOperationsException( "Could not get job detail[" + name + "]: " + e, SQL_GET_JOB_DETAIL, true );
         }
         return null;
     }
 
+    private static final String SQL_GET_JOB_DETAIL_VALUES = "SELECT icm_job_id, value, active " +
+            "FROM   icm_job_detail " +
+            "WHERE  name = ?";
+
+    /**
+     * Get the active value of a job detail for every job that has it.
+     * @param name String
+     * @return Map of job id to value
+     * @throws DBOperationsException exception
+     */
+    public Map<Integer, String> getIcmJobDetailValues( String name ) throws DBOperationsException {
+        Map<Integer, String> values = new HashMap<>();
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_DETAIL_VALUES );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_JOB_DETAIL_VALUES ) ) {
+            statement.setString( 1, name );
+            try( ResultSet result = statement.executeQuery() ) {
+                while( result.next() ) {
+                    int id = result.getInt( "icm_job_id" );
+                    String value = result.getString( "value" );
+                    if( result.getInt( "active" ) == 1 ) {
+                        values.put( id, value );
+                    }
+                    else {
+                        LOGGER.warn( "JobDetail not active: " + id + '/' + name + '/' + value );
+                    }
+                }
+            }
+        }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + SQL_GET_JOB_DETAIL_VALUES );
+            throw new DBOperationsException( "Could not get job detail values[" + name + "]: " + e, SQL_GET_JOB_DETAIL_VALUES, true );
+        }
+        return values;
+    }
+
+    /**
+     * Get all job tasks, ordered by job and task id.
+     * @return List
+     */
+    public List<IcmJobTask> getAllIcmJobTasks() {
+        List<IcmJobTask> tasks = new ArrayList<>();
+        LOGGER.debug( "SQL: " + SQL_GET_ALL_JOB_TASKS );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_ALL_JOB_TASKS ) ) {
+            try( ResultSet result = statement.executeQuery() ) {
+                while( result.next() ) {
+                    tasks.add( mapJobTask( result ) );
+                }
+            }
+        }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + SQL_GET_ALL_JOB_TASKS );
+            throw new DBOperationsException( "Could not get job tasks: " + e, SQL_GET_ALL_JOB_TASKS, true );
+        }
+        return tasks;
+    }
+
     /**
      * Get job tasks.
      * @param icmJobId int
      * @return List
      */
     public List<IcmJobTask> getIcmJobTasks( int icmJobId ) {
+        List<IcmJobTask> cached = jobTaskCatalog.getTasks( icmJobId );
+        if( cached != null ) {
+            return cached;
+        }
         List<IcmJobTask> tasks = new ArrayList<>();
-        StringBuilder sql = new StringBuilder();
-        sql.append( "SELECT   * " );
-        sql.append( "FROM     icm_job_task " );
-        sql.append( "WHERE    icm_job_id = ? " );
-        sql.append( "ORDER BY task_id" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_TASKS );
+        try {
+            PreparedStatement statement = prepareCached( SQL_GET_JOB_TASKS );
             statement.setInt( 1, icmJobId );
-            ResultSet result = statement.executeQuery();
-            while( result.next() ) {
-                tasks.add( mapJobTask( result ) );
+            try( ResultSet result = statement.executeQuery() ) {
+                while( result.next() ) {
+                    tasks.add( mapJobTask( result ) );
+                }
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job tasks[" + icmJobId + "]: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_JOB_TASKS );
+            throw new DBOperationsException( "Could not get job tasks[" + icmJobId + "]: " + e, SQL_GET_JOB_TASKS, true );
         }
         return tasks;
     }
@@ -239,29 +542,40 @@ public class IcmDao extends MainDao {
      * Get job task.
      * @param icmJobId int
      * @param taskId   int
-     * @return IcmJobTask
+     * @return IcmJobTask, empty when not found
+     * @see #findIcmJobTask(int, int)
      */
     public IcmJobTask getIcmJobTask( int icmJobId, int taskId ) {
-        IcmJobTask task = new IcmJobTask();
-        StringBuilder sql = new StringBuilder();
-        sql.append( "SELECT   * " );
-        sql.append( "FROM     icm_job_task " );
-        sql.append( "WHERE    icm_job_id = ? and task_id = ? " );
-        sql.append( "ORDER BY task_id" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        IcmJobTask task = findIcmJobTask( icmJobId, taskId );
+        return ( task != null ? task : new IcmJobTask() );
+    }
+
+    /**
+     * Find job task.
+     * @param icmJobId int
+     * @param taskId   int
+     * @return IcmJobTask or null when not found
+     */
+    public IcmJobTask findIcmJobTask( int icmJobId, int taskId ) {
+        if( jobTaskCatalog.isEnabled() ) {
+            return jobTaskCatalog.get( icmJobId, taskId );
+        }
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_TASK );
+        try {
+            PreparedStatement statement = prepareCached( SQL_GET_JOB_TASK );
             statement.setInt( 1, icmJobId );
             statement.setInt( 2, taskId );
-            ResultSet result = statement.executeQuery();
-            if( result.next() ) {
-                return mapJobTask( result );
+            try( ResultSet result = statement.executeQuery() ) {
+                if( result.next() ) {
+                    return mapJobTask( result );
+                }
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job task[" + icmJobId + "/" + taskId + "]: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_JOB_TASK );
+            throw new DBOperationsException( "Could not get job task[" + icmJobId + "/" + taskId + "]: " + e, SQL_GET_JOB_TASK, true );
         }
-        return task;
+        return null;
     }
 
     /**
@@ -287,6 +601,11 @@ public class IcmDao extends MainDao {
         }
     }
 
+    private static final String SQL_UPDATE_JOB_TASK = "UPDATE icm_job_task " +
+            "SET    task_id          = ?, " +
+            "       expected_minutes = ? " +
+            "WHERE  icm_job_id = ? and task_name = ?";
+
     /**
      * Update job task.
      * @param icmJobId        int
@@ -295,13 +614,8 @@ public class IcmDao extends MainDao {
      * @param expectedMinutes int
      */
     public void updateIcmJobTask( int icmJobId, int taskId, String taskName, int expectedMinutes ) {
-        String sql = "" +
-                "UPDATE icm_job_task " +
-                "SET    task_id          = ?, " +
-                "       expected_minutes = ? " +
-                "WHERE  icm_job_id = ? and task_name = ?";
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql, Statement.RETURN_GENERATED_KEYS ) ) {
+        LOGGER.debug( "SQL: " + SQL_UPDATE_JOB_TASK );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_UPDATE_JOB_TASK, Statement.RETURN_GENERATED_KEYS ) ) {
             statement.setInt( 1, taskId );
             statement.setInt( 2, expectedMinutes );
             statement.setInt( 3, icmJobId );
@@ -309,17 +623,32 @@ public class IcmDao extends MainDao {
             int i = statement.executeUpdate();
             if( i > 0 ) {
                 LOGGER.debug( "Task updated: " + i );
+                jobTaskCatalog.invalidate();
             }
             else {
                 insertIcmJobTask( icmJobId, taskId, taskName, expectedMinutes );
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not update task[" + icmJobId + "]: " + e, sql, true );
+            LOGGER.error( "SQL: " + SQL_UPDATE_JOB_TASK );
+            throw new DBOperationsException( "Could not update task[" + icmJobId + "]: " + e, SQL_UPDATE_JOB_TASK, true );
         }
     }
 
+    private static final String SQL_INSERT_JOB_TASK = "INSERT INTO icm_job_task " +
+            "            ( " +
+            "            icm_job_id, " +
+            "            task_id, " +
+            "            task_name, " +
+            "            expected_minutes " +
+            "            ) " +
+            "VALUES      ( " +
+            "             ?, " +
+            "             ?, " +
+            "             ?, " +
+            "             ? " +
+            "             )";
+
     /**
      * Insert job task.
      * @param icmJobId        int
@@ -331,27 +660,15 @@ public class IcmDao extends MainDao {
     protected int insertIcmJobTask( int icmJobId, int taskId, String taskName, int expectedMinutes ) {
         ResultSet keys;
         int jobTaskId = 0;
-        String sql = "INSERT INTO icm_job_task " +
-                "            ( " +
-                "            icm_job_id, " +
-                "            task_id, " +
-                "            task_name, " +
-                "            expected_minutes " +
-                "            ) " +
-                "VALUES      ( " +
-                "             ?, " +
-                "             ?, " +
-                "             ?, " +
-                "             ? " +
-                "             )";
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql, Statement.RETURN_GENERATED_KEYS ) ) {
+        LOGGER.debug( "SQL: " + SQL_INSERT_JOB_TASK );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_INSERT_JOB_TASK, Statement.RETURN_GENERATED_KEYS ) ) {
             statement.setInt( 1, icmJobId );
             statement.setInt( 2, taskId );
             statement.setString( 3, taskName );
             statement.setInt( 4, expectedMinutes );
             int i = statement.executeUpdate();
             LOGGER.debug( "Task added: " + i );
+            jobTaskCatalog.invalidate();
             keys = statement.getGeneratedKeys();
             if( keys.next() ) {
                 jobTaskId = keys.getInt( 1 );
@@ -362,8 +679,8 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not insert task[" + icmJobId + "]: " + e, sql, true );
+            LOGGER.error( "SQL: " + SQL_INSERT_JOB_TASK );
+            throw new DBOperationsException( "Could not insert task[" + icmJobId + "]: " + e, SQL_INSERT_JOB_TASK, true );
         }
         return jobTaskId;
     }
@@ -396,6 +713,18 @@ public class IcmDao extends MainDao {
      */
     public List<IcmJobHistory> getIcmJobHistory( int icmJobId, int max ) throws DBOperationsException {
         List<IcmJobHistory> history = new ArrayList<>();
+        forEachIcmJobHistory( icmJobId, max, history::add );
+        return history;
+    }
+
+    /**
+     * Pass each job history row to the consumer as it is read.
+     * @param icmJobId int
+     * @param max      int
+     * @param consumer Consumer
+     * @throws DBOperationsException exception
+     */
+    public void forEachIcmJobHistory( int icmJobId, int max, Consumer<IcmJobHistory> consumer ) throws DBOperationsException {
         String sql = "SELECT   " +
                 ( max > 0 ? " TOP " + max + " " : "" ) + " * " +
                 "FROM     icm_job_history " +
@@ -403,18 +732,22 @@ public class IcmDao extends MainDao {
                 "ORDER BY start_date desc";
         LOGGER.debug( "SQL: " + sql );
         try( PreparedStatement statement = getConnection().prepareStatement( sql ) ) {
-            ResultSet result = statement.executeQuery();
-            while( result.next() ) {
-                history.add( mapJobHistory( result ) );
+            statement.setFetchSize( fetchSize );
+            try( ResultSet result = statement.executeQuery() ) {
+                while( result.next() ) {
+                    consumer.accept( mapJobHistory( result ) );
+                }
             }
         }
         catch( Exception e ) {
             LOGGER.error( "SQL: " + sql );
             throw new DBOperationsException( "Could not get job history[" + icmJobId + "]: " + e, sql, true );
         }
-        return history;
     }
 
+    private static final String SQL_GET_BATCH_JOBS_SCHEDULE = "select j.icm_job_id,ibs.schedule_day,j.job_name,ibs.schedule_time " +
+            BATCH_SCHEDULE_FROM;
+
     /**
      * Get job history.
      * @param start LocalDateTime
@@ -428,73 +761,304 @@ public class IcmDao extends MainDao {
     public LinkedHashMap<String,Integer> getIcmBatchJobsSchedule(LocalDateTime start,LocalDateTime end) throws DBOperationsException{
         LinkedHashMap<String ,Integer>scheduleBatchJobs = new LinkedHashMap<>();
 
-        String sql  = "select j.icm_job_id,ibs.schedule_day,j.job_name,ibs.schedule_time from icm_batch_schedule ibs "+
-        "inner join icm_job j on j.icm_job_id=ibs.icm_job_id "
-        + "where ibs.active=1 "
-        + "and ((ibs.schedule_day in (select DATENAME(WEEKDAY,?)) "
-        + "and ibs.schedule_time >=cast(format(DATEPART(hour, ?),'0#') as varchar)+cast(format(DATEPART(minute, ?),'0#') as varchar)) "
-        + "OR "
-        + "(ibs.schedule_day in (select DATENAME(WEEKDAY,?)) "
-        +" And ibs.schedule_time <= 1100)) "
-        + "order by CASE ibs.schedule_day "
-        + "WHEN 'Sunday' THEN 1 "
-        + "WHEN 'Monday' THEN 2 "
-        +  "WHEN 'Tuesday' THEN 3 "
-        + "WHEN 'Wednesday' THEN 4 "
-        + "WHEN 'Thursday' THEN 5 "
-        + "WHEN 'Friday' THEN 6 "
-        + "ELSE 7  END , "
-        + "ibs.schedule_time,j.icm_job_id ";
+        LOGGER.debug( "ICM BATCH JOBS SCHEDULE SQL: " + SQL_GET_BATCH_JOBS_SCHEDULE );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_BATCH_JOBS_SCHEDULE) ) {
+            LOGGER.debug( "Schedule window: {} - {}", start, end );
 
+            setBatchScheduleWindow( statement, start, end );
 
-        LOGGER.debug( "ICM BATCH JOBS SCHEDULE SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql) ) {
-            System.out.println(" TimeStamp  >>>> "+ Timestamp.valueOf( start ));
-            System.out.println(" TimeStamp  >>>> "+ Timestamp.valueOf( end ));
+            ResultSet result = statement.executeQuery();
+            while( result.next() ) {
+                scheduleBatchJobs.put(result.getString("schedule_day")+"#"+result.getString("job_name")+"#"+result.getInt("schedule_time"),result.getInt("icm_job_id"));
+            }
+        }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + SQL_GET_BATCH_JOBS_SCHEDULE );
+            throw new DBOperationsException( "Could not get job history: " + e, SQL_GET_BATCH_JOBS_SCHEDULE, true );
+        }
 
-            statement.setTimestamp( 1, ( start != null ? Timestamp.valueOf( start ) : null ) );
-            statement.setTimestamp( 2, ( start != null ? Timestamp.valueOf( start ) : null ) );
-            statement.setTimestamp( 3, ( start != null ? Timestamp.valueOf( start ) : null ) );
-            statement.setTimestamp( 4, ( end != null ? Timestamp.valueOf( end ) : null ) );
+        return scheduleBatchJobs;
+    }
 
+    private static final String SQL_GET_BATCH_JOBS = "select j.*, ibs.schedule_day, ibs.schedule_time, ibs.job_stream " +
+            BATCH_SCHEDULE_FROM;
 
+    private static final String SQL_GET_BATCH_JOBS_HISTORY = "SELECT   * " +
+            "FROM     icm_job_history " +
+            "WHERE    icm_job_id in ( select icm_job_id from icm_batch_schedule where active = 1 ) and " +
+            "         ( ( start_date >= ? and end_date <= ? ) or " +
+            "           ( start_date is not null and end_date is null ) ) " +
+            "ORDER BY start_date";
+
+    /**
+     * Get the batch schedule for the report window together with its jobs, the completed
+     * history in the window and the open history, using one query for the schedule and one
+     * for the history.
+     * @param start LocalDateTime
+     * @param end   LocalDateTime
+     * @return IcmBatchJobsStatus
+     * @throws DBOperationsException exception
+     */
+    public IcmBatchJobsStatus getIcmBatchJobsStatus( LocalDateTime start, LocalDateTime end ) throws DBOperationsException {
+        List<IcmScheduleSlot> schedule = new ArrayList<>();
+        Map<Integer, IcmJob> jobs = new HashMap<>();
+        LOGGER.debug( "SQL: " + SQL_GET_BATCH_JOBS );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_BATCH_JOBS ) ) {
+            setBatchScheduleWindow( statement, start, end );
             ResultSet result = statement.executeQuery();
             while( result.next() ) {
-                scheduleBatchJobs.put(result.getString("schedule_day")+"#"+result.getString("job_name")+"#"+result.getInt("schedule_time"),result.getInt("icm_job_id"));
+                IcmJob job = jobs.computeIfAbsent( result.getInt( "icm_job_id" ), i -> mapJob( result ) );
+                schedule.add( new IcmScheduleSlot( job.getId(), job.getName(), result.getString( "schedule_day" ),
+                                                   result.getInt( "schedule_time" ), result.getString( "job_stream" ), true ) );
             }
         }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + SQL_GET_BATCH_JOBS );
+            throw new DBOperationsException( "Could not get batch jobs schedule: " + e, SQL_GET_BATCH_JOBS, true );
+        }
+
+        Map<Integer, List<IcmJobHistory>> completed = new HashMap<>();
+        Map<Integer, List<IcmJobHistory>> open = new HashMap<>();
+        LOGGER.debug( "SQL: " + SQL_GET_BATCH_JOBS_HISTORY );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_BATCH_JOBS_HISTORY ) ) {
+            statement.setTimestamp( 1, ( start != null ? Timestamp.valueOf( start ) : null ) );
+            statement.setTimestamp( 2, ( end != null ? Timestamp.valueOf( end ) : null ) );
+            ResultSet result = statement.executeQuery();
+            while( result.next() ) {
+                IcmJobHistory h = mapJobHistory( result );
+                if( h.getEnd() != null ) {
+                    completed.computeIfAbsent( h.getJobId(), i -> new ArrayList<>() ).add( h );
+                }
+                else {
+                    open.computeIfAbsent( h.getJobId(), i -> new ArrayList<>() ).add( h );
+                }
+            }
+        }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + SQL_GET_BATCH_JOBS_HISTORY );
+            throw new DBOperationsException( "Could not get batch jobs history: " + e, SQL_GET_BATCH_JOBS_HISTORY, true );
+        }
+
+        return new IcmBatchJobsStatus( new IcmScheduleIndex( schedule ), jobs, completed, open );
+    }
+
+    private static final String SQL_GET_JOB_HISTORY_SINCE = "SELECT   * " +
+            "FROM     icm_job_history " +
+            "WHERE    start_date >= ? " +
+            "ORDER BY start_date";
+
+    /**
+     * Load the whole batch schedule and the job history needed to work out job stream run
+     * windows for the report window in memory.
+     * @param start LocalDateTime
+     * @param end   LocalDateTime
+     * @return IcmJobStreamWindows
+     * @throws DBOperationsException exception
+     */
+    public IcmJobStreamWindows getJobStreamWindows( LocalDateTime start, LocalDateTime end ) throws DBOperationsException {
+        IcmScheduleIndex schedule = getIcmBatchSchedule();
+        List<IcmJobHistory> history = new ArrayList<>();
+        LocalDateTime from = IcmJobStreamWindows.getHistoryStart( start );
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_HISTORY_SINCE );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_JOB_HISTORY_SINCE ) ) {
+            statement.setFetchSize( fetchSize );
+            statement.setTimestamp( 1, Timestamp.valueOf( from ) );
+            try( ResultSet result = statement.executeQuery() ) {
+                while( result.next() ) {
+                    history.add( mapJobHistory( result ) );
+                }
+            }
+        }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + SQL_GET_JOB_HISTORY_SINCE );
+            throw new DBOperationsException( "Could not get job history since [" + from + "]: " + e, SQL_GET_JOB_HISTORY_SINCE, true );
+        }
+        return new IcmJobStreamWindows( schedule, history, start, end );
+    }
+
+    /**
+     * Get the highest job history id, the high-water mark for incremental refreshes.
+     * @return int or 0 if there is no history
+     * @throws DBOperationsException exception
+     */
+    public int getMaxIcmJobHistoryId() throws DBOperationsException {
+        return getMaxId( "icm_job_history", "icm_job_history_id" );
+    }
+
+    /**
+     * Get the highest job task history id, the high-water mark for incremental refreshes.
+     * @return int or 0 if there is no history
+     * @throws DBOperationsException exception
+     */
+    public int getMaxIcmJobTaskHistoryId() throws DBOperationsException {
+        return getMaxId( "icm_job_task_history", "icm_job_task_history_id" );
+    }
+
+    private int getMaxId( String table, String column ) throws DBOperationsException {
+        String sql = "SELECT MAX(" + column + ") max_id FROM " + table;
+        LOGGER.debug( "SQL: " + sql );
+        try( PreparedStatement statement = getConnection().prepareStatement( sql );
+             ResultSet result = statement.executeQuery() ) {
+            return ( result.next() ? result.getInt( "max_id" ) : 0 );
+        }
         catch( Exception e ) {
             LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job history: " + e, sql, true );
+            throw new DBOperationsException( "Could not get max id of " + table + ": " + e, sql, true );
         }
+    }
 
-        return scheduleBatchJobs;
+    private static final String SQL_GET_JOB_HISTORY_CHANGES = "SELECT * FROM icm_job_history WHERE icm_job_history_id > ? ORDER BY start_date";
+
+    /**
+     * Get job history added after a high-water mark, and the current rows of runs that were
+     * open so runs that have since ended are picked up.
+     * @param afterId int job history high-water mark
+     * @param openIds Collection of open job history ids
+     * @return List ordered by start date within each query
+     * @throws DBOperationsException exception
+     */
+    public List<IcmJobHistory> getIcmJobHistoryChanges( int afterId, Collection<Integer> openIds ) throws DBOperationsException {
+        List<IcmJobHistory> changes = new ArrayList<>();
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_HISTORY_CHANGES );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_JOB_HISTORY_CHANGES ) ) {
+            statement.setInt( 1, afterId );
+            try( ResultSet result = statement.executeQuery() ) {
+                while( result.next() ) {
+                    changes.add( mapJobHistory( result ) );
+                }
+            }
+        }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + SQL_GET_JOB_HISTORY_CHANGES );
+            throw new DBOperationsException( "Could not get job history after [" + afterId + "]: " + e, SQL_GET_JOB_HISTORY_CHANGES, true );
+        }
+
+        List<Integer> ids = new ArrayList<>( openIds );
+        for( int i = 0; i < ids.size(); i += MERGE_BATCH_SIZE ) {
+            List<Integer> chunk = ids.subList( i, Math.min( ids.size(), i + MERGE_BATCH_SIZE ) );
+            String osql = "SELECT * FROM icm_job_history WHERE icm_job_history_id in " + values( 1, chunk.size() );
+            LOGGER.debug( "SQL: " + osql );
+            try( PreparedStatement statement = getConnection().prepareStatement( osql ) ) {
+                int p = 1;
+                for( int id : chunk ) {
+                    statement.setInt( p++, id );
+                }
+                try( ResultSet result = statement.executeQuery() ) {
+                    while( result.next() ) {
+                        changes.add( mapJobHistory( result ) );
+                    }
+                }
+            }
+            catch( Exception e ) {
+                LOGGER.error( "SQL: " + osql );
+                throw new DBOperationsException( "Could not get open job history: " + e, osql, true );
+            }
+        }
+        return changes;
+    }
+
+    private static final String SQL_GET_JOB_TASK_HISTORY_CHANGES = "SELECT DISTINCT icm_job_history_id FROM icm_job_task_history WHERE icm_job_task_history_id > ?";
+
+    /**
+     * Get the job history ids that have task history added after a high-water mark.
+     * @param afterId int job task history high-water mark
+     * @return Set
+     * @throws DBOperationsException exception
+     */
+    public Set<Integer> getIcmJobTaskHistoryChanges( int afterId ) throws DBOperationsException {
+        Set<Integer> ids = new HashSet<>();
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_TASK_HISTORY_CHANGES );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_JOB_TASK_HISTORY_CHANGES ) ) {
+            statement.setInt( 1, afterId );
+            try( ResultSet result = statement.executeQuery() ) {
+                while( result.next() ) {
+                    ids.add( result.getInt( "icm_job_history_id" ) );
+                }
+            }
+        }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + SQL_GET_JOB_TASK_HISTORY_CHANGES );
+            throw new DBOperationsException( "Could not get job task history after [" + afterId + "]: " + e, SQL_GET_JOB_TASK_HISTORY_CHANGES, true );
+        }
+        return ids;
+    }
+
+    private static final String SQL_GET_BATCH_SCHEDULE = "select j.icm_job_id, j.job_name, ibs.schedule_day, ibs.schedule_time, ibs.job_stream, ibs.active " +
+            "from icm_batch_schedule ibs " +
+            "inner join icm_job j on j.icm_job_id=ibs.icm_job_id " +
+            "order by ibs.schedule_day, ibs.schedule_time, j.icm_job_id";
+
+    /**
+     * Get every row of the batch schedule, active or not, ordered by day, time and job.
+     * @return IcmScheduleIndex
+     * @throws DBOperationsException exception
+     */
+    public IcmScheduleIndex getIcmBatchSchedule() throws DBOperationsException {
+        List<IcmScheduleSlot> schedule = new ArrayList<>();
+        LOGGER.debug( "SQL: " + SQL_GET_BATCH_SCHEDULE );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_BATCH_SCHEDULE ) ) {
+            ResultSet result = statement.executeQuery();
+            while( result.next() ) {
+                schedule.add( mapScheduleSlot( result ) );
+            }
+        }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + SQL_GET_BATCH_SCHEDULE );
+            throw new DBOperationsException( "Could not get batch schedule: " + e, SQL_GET_BATCH_SCHEDULE, true );
+        }
+        return new IcmScheduleIndex( schedule );
+    }
+
+    /**
+     * Map schedule slot fields.
+     * @param result ResultSet
+     * @return IcmScheduleSlot
+     * @throws DBOperationsException exception
+     */
+    private IcmScheduleSlot mapScheduleSlot( ResultSet result ) throws DBOperationsException {
+        try {
+            return new IcmScheduleSlot( result.getInt( "icm_job_id" ), result.getString( "job_name" ),
+                                        result.getString( "schedule_day" ), result.getInt( "schedule_time" ),
+                                        result.getString( "job_stream" ), result.getInt( "active" ) == 1 );
+        }
+        catch( SQLException e ) {
+            throw new DBOperationsException( "Exception in mapScheduleSlot: " + e, true );
+        }
+    }
+
+    /**
+     * Set the window parameters for {@link #BATCH_SCHEDULE_FROM}.
+     * @param statement PreparedStatement
+     * @param start     LocalDateTime
+     * @param end       LocalDateTime
+     * @throws SQLException exception
+     */
+    private void setBatchScheduleWindow( PreparedStatement statement, LocalDateTime start, LocalDateTime end ) throws SQLException {
+        statement.setTimestamp( 1, ( start != null ? Timestamp.valueOf( start ) : null ) );
+        statement.setTimestamp( 2, ( start != null ? Timestamp.valueOf( start ) : null ) );
+        statement.setTimestamp( 3, ( start != null ? Timestamp.valueOf( start ) : null ) );
+        statement.setTimestamp( 4, ( end != null ? Timestamp.valueOf( end ) : null ) );
     }
 
 
     public List<IcmJobHistory> getIcmCompletedJob( LocalDateTime start, LocalDateTime end ,int icmJobId) throws DBOperationsException {
         List<IcmJobHistory> completedIcmJob = new ArrayList<>();
-        String sql = "SELECT   *  "
-        + " FROM   icm_job_history  "
-        + "WHERE    start_date >= ? and end_date <= ?"
-        + " and icm_job_id = ? "
-        + "ORDER BY start_date";
 
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_COMPLETED_JOB );
+        try {
+            PreparedStatement statement = prepareCached( SQL_GET_COMPLETED_JOB );
             statement.setTimestamp( 1, ( start != null ? Timestamp.valueOf( start ) : null ) );
             statement.setTimestamp( 2, ( end != null ? Timestamp.valueOf( end ) : null ) );
             statement.setInt(3,icmJobId);
-            ResultSet result = statement.executeQuery();
-
-
-            while( result.next() ) {
-                completedIcmJob.add(mapJobHistory( result ));
+            try( ResultSet result = statement.executeQuery() ) {
+                while( result.next() ) {
+                    completedIcmJob.add(mapJobHistory( result ));
+                }
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job history: " + e, sql, true );
+            LOGGER.error( "SQL: " + SQL_GET_COMPLETED_JOB );
+            throw new DBOperationsException( "Could not get job history: " + e, SQL_GET_COMPLETED_JOB, true );
         }
         return completedIcmJob;
     }
@@ -506,12 +1070,30 @@ public class IcmDao extends MainDao {
         String scheduleDay = jobScheduleInfo[0];
         int scheduleTime = Integer.parseInt(jobScheduleInfo[2]);
 
+        IcmScheduleSlot slot = new IcmScheduleSlot( icmJobId, jobScheduleInfo[1], scheduleDay, scheduleTime,
+                                                    getJobStream( scheduleDay, icmJobId, scheduleTime ), true );
+        return getIcmCompletedJobScheduledMorethanOnce( start, end, slot, jobOccurence );
+    }
+
+    /**
+     * Get completed history for a schedule slot. For a job scheduled more than once, the window is
+     * narrowed to the run of the slot's job stream.
+     * @param start        LocalDateTime
+     * @param end          LocalDateTime
+     * @param slot         IcmScheduleSlot
+     * @param jobOccurence int number of times the job is scheduled
+     * @return List
+     * @throws DBOperationsException exception
+     */
+    public List<IcmJobHistory> getIcmCompletedJobScheduledMorethanOnce( LocalDateTime start, LocalDateTime end, IcmScheduleSlot slot, int jobOccurence ) throws DBOperationsException {
+
+        int icmJobId = slot.getJobId();
+        String scheduleDay = slot.getDay();
+        int scheduleTime = slot.getTime();
 
         LocalDateTime  starttmsmp = null;
         LocalDateTime  endtmsp = null;
-        String jobStream= null;
-
-            jobStream = getJobStream(scheduleDay,icmJobId,scheduleTime) ;
+        String jobStream = slot.getJobStream();
              if(jobStream !=null){
                  LocalDateTime[] jobStreamStartAndEndTime = getJobStreamStartAndEndTime(jobStream,icmJobId,start,end,scheduleTime,scheduleDay);
                  starttmsmp  = jobStreamStartAndEndTime[0];
@@ -520,14 +1102,8 @@ public class IcmDao extends MainDao {
 
 
         List<IcmJobHistory> completedIcmJob = new ArrayList<>();
-        String sql = "SELECT   *  "
-                + " FROM   icm_job_history  "
-                + "WHERE    start_date >= ? and end_date <= ?"
-                + " and icm_job_id = ? "
-                + "ORDER BY start_date";
-
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_COMPLETED_JOB );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_COMPLETED_JOB) ) {
             if(jobOccurence>1 && jobStream != null ){
                 statement.setTimestamp( 1, ( starttmsmp != null ? Timestamp.valueOf( starttmsmp ) : null ) );
                 statement.setTimestamp( 2, ( endtmsp != null ? Timestamp.valueOf( endtmsp ) : null ) );
@@ -545,29 +1121,28 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job history: " + e, sql, true );
+            LOGGER.error( "SQL: " + SQL_GET_COMPLETED_JOB );
+            throw new DBOperationsException( "Could not get job history: " + e, SQL_GET_COMPLETED_JOB, true );
         }
         return completedIcmJob;
     }
 
+    private static final String SQL_GET_STREAM_START_AND_END = "SELECT CASE WHEN MIN(start_date) is null THEN DATEADD(YEAR, -1, GETDATE()) ELSE MIN(start_date) END AS start_date " +
+            " ,CASE WHEN MAX(end_date) is null THEN DATEADD(YEAR, -1, GETDATE()) ELSE MAX(end_date) END AS end_date " +
+            ",CASE WHEN MAX(start_date)  is null THEN DATEADD(YEAR, -1, GETDATE()) ELSE MAX(start_date) END AS max_start_date " +
+            " FROM icm_job_history " +
+            " WHERE icm_job_id IN " +
+            " (SELECT icm_job_id FROM icm_batch_schedule " +
+            " WHERE job_stream = ?  AND schedule_day = ? AND icm_job_id <> ?)" +
+            " AND start_date >= ? AND (end_date <= ?  OR end_date is null)  ";
+
     public LocalDateTime[] getJobStreamStartAndEndTime(String jobStream,int icmJobId,LocalDateTime start,LocalDateTime end ,int scheduleTime,String scheduleDay){
         LocalDateTime startTime = null;
         LocalDateTime endTime = null;
         LocalDateTime maxStartTime = null;
         LocalDateTime [] jobStreamSchedule = {};
-        String sql = "SELECT CASE WHEN MIN(start_date) is null THEN DATEADD(YEAR, -1, GETDATE()) ELSE MIN(start_date) END AS start_date " +
-                " ,CASE WHEN MAX(end_date) is null THEN DATEADD(YEAR, -1, GETDATE()) ELSE MAX(end_date) END AS end_date "
-                +",CASE WHEN MAX(start_date)  is null THEN DATEADD(YEAR, -1, GETDATE()) ELSE MAX(start_date) END AS max_start_date "
-                +" FROM icm_job_history "
-                +" WHERE icm_job_id IN "
-                +" (SELECT icm_job_id FROM icm_batch_schedule "
-                + " WHERE job_stream = ?  AND schedule_day = ? AND icm_job_id <> ?)"
-                + " AND start_date >= ? AND (end_date <= ?  OR end_date is null)  ";
-
-
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_STREAM_START_AND_END );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_STREAM_START_AND_END ) ) {
             statement.setString(1,jobStream);
             LOGGER.info("The Value of Completed Job Stream : {}",jobStream);
 
@@ -602,8 +1177,8 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get in Job Stream Start and End time [" + icmJobId + "]: " + e, sql, true );
+            LOGGER.error( "SQL: " + SQL_GET_STREAM_START_AND_END );
+            throw new DBOperationsException( "Could not get in Job Stream Start and End time [" + icmJobId + "]: " + e, SQL_GET_STREAM_START_AND_END, true );
         }
 
         return jobStreamSchedule;
@@ -630,17 +1205,17 @@ public class IcmDao extends MainDao {
         return false;
     }
 
+    private static final String SQL_COUNT_OTHER_STREAM_RUNS = "select count(jh.icm_job_id) as count from icm_batch_schedule ibs inner join icm_job_history jh  on " +
+            " ibs.icm_job_id = jh.icm_job_id " +
+            " where jh.start_date  >= ? AND ibs.schedule_time < ? " +
+            " and ibs.job_stream <> ? " +
+            " and ibs.schedule_day = ? ";
+
     public int checkCurrentJobEntryIsNull(int icmJobId, LocalDateTime start ,int scheduleTime,String scheduleDay,String jobStream) {
 
         int records = 0;
-        String query = "select count(jh.icm_job_id) as count from icm_batch_schedule ibs inner join icm_job_history jh  on "
-                +" ibs.icm_job_id = jh.icm_job_id "
-                +" where jh.start_date  >= ? AND ibs.schedule_time < ? "
-                +" and ibs.job_stream <> ? "
-                +" and ibs.schedule_day = ? ";
-
-        LOGGER.debug( "SQL: " + query );
-        try( PreparedStatement statement = getConnection().prepareStatement( query ) ) {
+        LOGGER.debug( "SQL: " + SQL_COUNT_OTHER_STREAM_RUNS );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_COUNT_OTHER_STREAM_RUNS ) ) {
 
             statement.setTimestamp( 1, ( start != null ? Timestamp.valueOf( start ) : null ) );
             statement.setInt(2,scheduleTime);
@@ -656,74 +1231,63 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + query );
-            throw new DBOperationsException( "Could not get in process job[" + icmJobId + "]: " + e, query, true );
+            LOGGER.error( "SQL: " + SQL_COUNT_OTHER_STREAM_RUNS );
+            throw new DBOperationsException( "Could not get in process job[" + icmJobId + "]: " + e, SQL_COUNT_OTHER_STREAM_RUNS, true );
         }
         return records;
 
     }
 
+    private static final String SQL_GET_STREAM_SCHEDULE_TIMES = "SELECT min(schedule_time) as minscheduletime,max(schedule_time) as maxscheduletime " +
+            " FROM icm_batch_schedule  WHERE job_stream = ? ";
+
     public LocalDateTime[] getJobStreamScheduleStartAndEndTime(String jobStream, LocalDateTime start, LocalDateTime end){
         int minscheduletime = 0,maxscheduletime = 0;
-        String jsminscheduletime = null;
-        String jsmaxscheduletime = null;
         LocalDateTime startdateTime = null;
         LocalDateTime enddateTime = null;
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.nnn");
 
-        String sql = "SELECT min(schedule_time) as minscheduletime,max(schedule_time) as maxscheduletime ,"
-                    + " (CAST(ISNULL(format(min(schedule_time),'00:00'),0) AS VARCHAR)+':00.000') as jsminscheduletime, "
-                    + " (CAST(ISNULL(format(max(schedule_time),'00:00'),0) AS VARCHAR)+':00.000') as jsmaxscheduletime "
-                    + " FROM icm_batch_schedule  WHERE job_stream = ? ";
-
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_STREAM_SCHEDULE_TIMES );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_STREAM_SCHEDULE_TIMES) ) {
 
             statement.setString(1,jobStream);
             ResultSet result = statement.executeQuery();
             while( result.next() ) {
                  minscheduletime = result.getInt("minscheduletime");
                  maxscheduletime = result.getInt("maxscheduletime");
-                 jsminscheduletime = result.getString("jsminscheduletime");
-                 jsmaxscheduletime = result.getString("jsmaxscheduletime");
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job history: " + e, sql, true );
+            LOGGER.error( "SQL: " + SQL_GET_STREAM_SCHEDULE_TIMES );
+            throw new DBOperationsException( "Could not get job history: " + e, SQL_GET_STREAM_SCHEDULE_TIMES, true );
         }
 
+        // Place the schedule times (HHmm) on the day directly instead of formatting and parsing them.
         if(minscheduletime >= 1700  ){
-            String startDate = DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH).format(start);
-            startdateTime = LocalDateTime.parse(startDate+' '+jsminscheduletime, formatter);
-
+            startdateTime = IcmTimeFormat.atScheduleTime(start.toLocalDate(), minscheduletime);
         }else{
-            String startDate = DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH).format(end);
-            startdateTime = LocalDateTime.parse(startDate+' '+jsminscheduletime, formatter);
+            startdateTime = IcmTimeFormat.atScheduleTime(end.toLocalDate(), minscheduletime);
         }
 
         if(maxscheduletime >= 1700  ){
-            String endDate = DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH).format(start);
-            enddateTime = LocalDateTime.parse(endDate+' '+jsmaxscheduletime, formatter);
+            enddateTime = IcmTimeFormat.atScheduleTime(start.toLocalDate(), maxscheduletime);
         }else{
-            String endDate = DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH).format(end);
-            enddateTime = LocalDateTime.parse(endDate+' '+jsmaxscheduletime, formatter);
-
+            enddateTime = IcmTimeFormat.atScheduleTime(end.toLocalDate(), maxscheduletime);
         }
 
      return new LocalDateTime[]{startdateTime,enddateTime};
 
     }
+
+    private static final String SQL_GET_JOB_STREAM = "SELECT job_stream FROM icm_batch_schedule " +
+            " WHERE schedule_day = ? " +
+            " AND icm_job_id  = ? " +
+            " AND schedule_time = ? ";
+
 //     Method to obtain the jobStream name for the job
     public String getJobStream(String scheduleDay,int icmJobId,int scheduleTime){
         String jobStream= null;
-        String query = "SELECT job_stream FROM icm_batch_schedule "
-                +" WHERE schedule_day = ? "
-                +" AND icm_job_id  = ? "
-                +" AND schedule_time = ? ";
-
-        LOGGER.debug( "SQL: " + query );
-        try( PreparedStatement statement = getConnection().prepareStatement( query ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_STREAM );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_JOB_STREAM ) ) {
             statement.setString(1,scheduleDay);
             if( icmJobId != 0 ) {
                 statement.setInt( 2, icmJobId );
@@ -737,8 +1301,8 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + query );
-            throw new DBOperationsException( "Could not get the Job Stream for job id :  [" + icmJobId + "]: " + e, query, true );
+            LOGGER.error( "SQL: " + SQL_GET_JOB_STREAM );
+            throw new DBOperationsException( "Could not get the Job Stream for job id :  [" + icmJobId + "]: " + e, SQL_GET_JOB_STREAM, true );
         }
         return jobStream;
     }
@@ -771,31 +1335,44 @@ public class IcmDao extends MainDao {
     }
 
     public IcmJobHistory getIcmInprogressJobScheduledMorethanOnce(LocalDateTime start ,int icmJobId,String mapKey) throws  NumberFormatException,DBOperationsException{
-        IcmJobHistory inprogressJob = null;
-        String jobStream = null;
 
         String[] arrayOfString = mapKey.split("#");
 
         String scheduleDay = arrayOfString[0];
         int scheduleTime = Integer.parseInt(arrayOfString[2]);
 
+        IcmScheduleSlot slot = new IcmScheduleSlot( icmJobId, arrayOfString[1], scheduleDay, scheduleTime,
+                                                    getJobStream( scheduleDay, icmJobId, scheduleTime ), true );
+        return getIcmInprogressJobScheduledMorethanOnce( start, slot );
+    }
+
+    private static final String SQL_GET_INPROGRESS_STREAM_JOB = "SELECT * FROM icm_job_history jh INNER JOIN " +
+            " icm_batch_schedule ibs " +
+            " on jh.icm_job_id = ibs.icm_job_id " +
+            " where ibs.job_stream = ? " +
+            " and jh.start_date > ? " +
+            " and jh.end_date is null " +
+            " and ibs.icm_job_id = ? ";
 
-        jobStream = getJobStream(scheduleDay,icmJobId,scheduleTime) ;
+    /**
+     * Get the open history of a schedule slot's job started after its job stream started.
+     * @param start LocalDateTime
+     * @param slot  IcmScheduleSlot
+     * @return IcmJobHistory
+     * @throws DBOperationsException exception
+     */
+    public IcmJobHistory getIcmInprogressJobScheduledMorethanOnce( LocalDateTime start, IcmScheduleSlot slot ) throws DBOperationsException {
+        IcmJobHistory inprogressJob = null;
+        int icmJobId = slot.getJobId();
+        String scheduleDay = slot.getDay();
+        String jobStream = slot.getJobStream();
 
         LocalDateTime jobStreamStarttTime= getJobStreamStarttTime(jobStream,start,scheduleDay,icmJobId);
 
         LOGGER.info("InProgress JobStream : {} and  JobStream Start Time : {}",jobStream,jobStreamStarttTime);
 
-        String sql =  "SELECT * FROM icm_job_history jh INNER JOIN "
-                + " icm_batch_schedule ibs "
-                +" on jh.icm_job_id = ibs.icm_job_id "
-                +" where ibs.job_stream = ? "
-                +" and jh.start_date > ? "
-                +" and jh.end_date is null "
-               + " and ibs.icm_job_id = ? " ;
-
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_INPROGRESS_STREAM_JOB );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_INPROGRESS_STREAM_JOB ) ) {
             if(jobStream != null && jobStream.length() > 0) {
                 statement.setString(1, jobStream);
             }
@@ -811,24 +1388,23 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get in process job [" + icmJobId + "]: for Job Stream [" +jobStream+ "]"  + e, sql, true );
+            LOGGER.error( "SQL: " + SQL_GET_INPROGRESS_STREAM_JOB );
+            throw new DBOperationsException( "Could not get in process job [" + icmJobId + "]: for Job Stream [" +jobStream+ "]"  + e, SQL_GET_INPROGRESS_STREAM_JOB, true );
         }
         return inprogressJob;
 
     }
 
+    private static final String SQL_GET_STREAM_START = "SELECT CASE WHEN MIN(start_date) is null THEN  GETDATE() ELSE MIN(start_date) End AS start_date  " +
+            "  FROM icm_job_history  WHERE icm_job_id IN " +
+            "  (select icm_job_id from  icm_batch_schedule where job_stream = ? and schedule_day = ? and icm_job_id <> ?)" +
+            "  AND start_date >= ?";
+
     public LocalDateTime getJobStreamStarttTime(String jobStream,LocalDateTime start ,String scheduleDay, int icmJobId){
         LocalDateTime jobStreamStartTime = null;
 
-        String sql = "SELECT CASE WHEN MIN(start_date) is null THEN  GETDATE() ELSE MIN(start_date) End AS start_date  "
-                + "  FROM icm_job_history  WHERE icm_job_id IN "
-                + "  (select icm_job_id from  icm_batch_schedule where job_stream = ? and schedule_day = ? and icm_job_id <> ?)"
-                + "  AND start_date >= ?";
-
-
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_STREAM_START );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_STREAM_START ) ) {
 
             if(jobStream != null && jobStream.length() > 0) {
                 statement.setString(1, jobStream);
@@ -844,24 +1420,24 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get in JobStream start Time  for Job Stream [" + jobStream + "]: " + e, sql, true );
+            LOGGER.error( "SQL: " + SQL_GET_STREAM_START );
+            throw new DBOperationsException( "Could not get in JobStream start Time  for Job Stream [" + jobStream + "]: " + e, SQL_GET_STREAM_START, true );
         }
 
         return jobStreamStartTime;
 
     }
 
-    public boolean getLastScheduledJobStatusIpsAndAcra(LocalDateTime start,LocalDateTime end){
-        String sql =  " select * from icm_job_history jh where icm_job_id in (select top 1 icm_job_id  from icm_batch_schedule  ibs "
-                + " where ibs.schedule_day =(SELECT DATENAME(dw,GETDATE())) "
-                + " and ibs.schedule_time < 1100  "
-                + " order by ibs.schedule_time desc) "
-                + " and jh.start_date >= ? and jh.end_date <=  ? "   ;
+    private static final String SQL_GET_LAST_SCHEDULED_JOB_IPS_ACRA = " select * from icm_job_history jh where icm_job_id in (select top 1 icm_job_id  from icm_batch_schedule  ibs " +
+            " where ibs.schedule_day =(SELECT DATENAME(dw,GETDATE())) " +
+            " and ibs.schedule_time < 1100  " +
+            " order by ibs.schedule_time desc) " +
+            " and jh.start_date >= ? and jh.end_date <=  ? ";
 
-        LOGGER.debug( "SQL: " + sql );
+    public boolean getLastScheduledJobStatusIpsAndAcra(LocalDateTime start,LocalDateTime end){
+        LOGGER.debug( "SQL: " + SQL_GET_LAST_SCHEDULED_JOB_IPS_ACRA );
         LOGGER.info("Getting the last scheduled job status ");
-        try(PreparedStatement statement = getConnection().prepareStatement(sql)){
+        try(PreparedStatement statement = getConnection().prepareStatement(SQL_GET_LAST_SCHEDULED_JOB_IPS_ACRA)){
             statement.setTimestamp( 1, ( start != null ? Timestamp.valueOf( start ) : null ) );
             statement.setTimestamp( 2, ( end != null ? Timestamp.valueOf( end ) : null ) );
             ResultSet result = statement.executeQuery();
@@ -874,25 +1450,26 @@ public class IcmDao extends MainDao {
 
 
         } catch (Exception e){
-            LOGGER.error("SQL:"+sql);
-            throw new DBOperationsException( "Could get the last job Scheduled : FOR Acra and IPS  " + e, sql, true );
+            LOGGER.error("SQL:"+SQL_GET_LAST_SCHEDULED_JOB_IPS_ACRA);
+            throw new DBOperationsException( "Could get the last job Scheduled : FOR Acra and IPS  " + e, SQL_GET_LAST_SCHEDULED_JOB_IPS_ACRA, true );
 
         }
 
 
         return false;
     }
-    public boolean getLastScheduledJobStatus(LocalDateTime start,LocalDateTime end){
 
-          String sql  = "select * from icm_job_history jh where icm_job_id in (select  top 1 icm_job_id from icm_batch_schedule  ibs "
-                  +  " where ibs.schedule_day =(SELECT DATENAME(dw,GETDATE()))  "
-                  +  " and ibs.schedule_time < 1100 and "
-                  +  " ibs.icm_job_id not in(select icm_job_id from icm_job where job_name like '%ips_transactions' or job_name like '%acra_debtloader') "
-                  +  "order by ibs.schedule_time desc)  and jh.start_date >= ?  and jh.end_date <=  ?  ";
+    private static final String SQL_GET_LAST_SCHEDULED_JOB = "select * from icm_job_history jh where icm_job_id in (select  top 1 icm_job_id from icm_batch_schedule  ibs " +
+            " where ibs.schedule_day =(SELECT DATENAME(dw,GETDATE()))  " +
+            " and ibs.schedule_time < 1100 and " +
+            " ibs.icm_job_id not in(select icm_job_id from icm_job where job_name like '%ips_transactions' or job_name like '%acra_debtloader') " +
+            "order by ibs.schedule_time desc)  and jh.start_date >= ?  and jh.end_date <=  ?  ";
 
-        LOGGER.debug( "SQL: " + sql );
+    public boolean getLastScheduledJobStatus(LocalDateTime start,LocalDateTime end){
+
+        LOGGER.debug( "SQL: " + SQL_GET_LAST_SCHEDULED_JOB );
         LOGGER.info("Getting the last scheduled job status ");
-        try(PreparedStatement statement = getConnection().prepareStatement(sql)){
+        try(PreparedStatement statement = getConnection().prepareStatement(SQL_GET_LAST_SCHEDULED_JOB)){
             statement.setTimestamp( 1, ( start != null ? Timestamp.valueOf( start ) : null ) );
             statement.setTimestamp( 2, ( end != null ? Timestamp.valueOf( end ) : null ) );
             ResultSet result = statement.executeQuery();
@@ -903,8 +1480,8 @@ public class IcmDao extends MainDao {
             }
 
         } catch (Exception e){
-            LOGGER.error("SQL:"+sql);
-            throw new DBOperationsException( "Could get the last job Scheduled : " + e, sql, true );
+            LOGGER.error("SQL:"+SQL_GET_LAST_SCHEDULED_JOB);
+            throw new DBOperationsException( "Could get the last job Scheduled : " + e, SQL_GET_LAST_SCHEDULED_JOB, true );
 
         }
 
@@ -914,39 +1491,103 @@ public class IcmDao extends MainDao {
 
     public List<IcmJobHistory> getIcmJobHistory( LocalDateTime start, LocalDateTime end ) throws DBOperationsException {
         List<IcmJobHistory> history = new ArrayList<>();
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "SELECT   * " );
-        sql.append( "FROM     icm_job_history " );
-        sql.append( "WHERE    start_date >= ? and end_date <= ?" );
-        sql.append( "ORDER BY start_date" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        forEachIcmJobHistory( start, end, history::add );
+        return history;
+    }
+
+    /**
+     * Pass each job history row completed between start and end to the consumer as it is read.
+     * @param start    LocalDateTime
+     * @param end      LocalDateTime
+     * @param consumer Consumer
+     * @throws DBOperationsException exception
+     */
+    public void forEachIcmJobHistory( LocalDateTime start, LocalDateTime end, Consumer<IcmJobHistory> consumer ) throws DBOperationsException {
+        try( Stream<IcmJobHistory> history = streamIcmJobHistory( start, end ) ) {
+            history.forEach( consumer );
+        }
+    }
+
+    /**
+     * Stream job history completed between start and end, reading rows as the stream is consumed.
+     * The stream holds an open statement and must be closed. With a connection pool, close it
+     * before {@link #releaseConnection()}, or its open ResultSet goes back to the pool on a
+     * connection another thread can borrow.
+     * @param start LocalDateTime
+     * @param end   LocalDateTime
+     * @return Stream
+     * @throws DBOperationsException exception
+     */
+    public Stream<IcmJobHistory> streamIcmJobHistory( LocalDateTime start, LocalDateTime end ) throws DBOperationsException {
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_HISTORY_WINDOW );
+        PreparedStatement statement = null;
+        try {
+            statement = getConnection().prepareStatement( SQL_GET_JOB_HISTORY_WINDOW );
+            statement.setFetchSize( fetchSize );
             statement.setTimestamp( 1, ( start != null ? Timestamp.valueOf( start ) : null ) );
             statement.setTimestamp( 2, ( end != null ? Timestamp.valueOf( end ) : null ) );
-            ResultSet result = statement.executeQuery();
-            while( result.next() ) {
-                history.add( mapJobHistory( result ) );
-            }
+            return streamJobHistory( statement, statement.executeQuery(), SQL_GET_JOB_HISTORY_WINDOW );
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job history: " + e, sql.toString(), true );
+            closeQuietly( statement );
+            LOGGER.error( "SQL: " + SQL_GET_JOB_HISTORY_WINDOW );
+            throw new DBOperationsException( "Could not get job history: " + e, SQL_GET_JOB_HISTORY_WINDOW, true );
         }
-        return history;
     }
 
+    /**
+     * Wrap a job history result set in a stream that closes the statement when closed.
+     * @param statement Statement
+     * @param result    ResultSet
+     * @param sql       String
+     * @return Stream
+     */
+    private Stream<IcmJobHistory> streamJobHistory( Statement statement, ResultSet result, String sql ) {
+        Spliterator<IcmJobHistory> rows = new Spliterators.AbstractSpliterator<IcmJobHistory>( Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL ) {
+            @Override
+            public boolean tryAdvance( Consumer<? super IcmJobHistory> action ) {
+                try {
+                    if( !result.next() ) {
+                        return false;
+                    }
+                }
+                catch( SQLException e ) {
+                    LOGGER.error( "SQL: " + sql );
+                    throw new DBOperationsException( "Could not read job history: " + e, sql, true );
+                }
+                action.accept( mapJobHistory( result ) );
+                return true;
+            }
+        };
+        return StreamSupport.stream( rows, false ).onClose( () -> closeQuietly( statement ) );
+    }
 
-    public String getRunCycleForOnDemandJobs(int icmJobId,String scheduleDay,int scheduleTime) throws DBOperationsException {
-        String runcycle = "";
-        String sql = "SELECT runcycle "
-                  +"FROM icm_batch_schedule "
-                  +"WHERE icm_job_id = ?"
-                  +" AND schedule_day = ? "
-                  +" AND schedule_time = ? ";
+    /**
+     * Close statement, logging any failure.
+     * @param statement Statement
+     */
+    private static void closeQuietly( Statement statement ) {
+        if( statement != null ) {
+            try {
+                statement.close();
+            }
+            catch( SQLException e ) {
+                LOGGER.warn( "Could not close statement: " + e );
+            }
+        }
+    }
 
-        LOGGER.debug("SQL :",sql);
 
-        try( PreparedStatement statement = getConnection().prepareStatement( sql ) ) {
+    private static final String SQL_GET_RUN_CYCLE = "SELECT runcycle " +
+            "FROM icm_batch_schedule " +
+            "WHERE icm_job_id = ?" +
+            " AND schedule_day = ? " +
+            " AND schedule_time = ? ";
+
+    public String getRunCycleForOnDemandJobs(int icmJobId,String scheduleDay,int scheduleTime) throws DBOperationsException {
+        String runcycle = "";
+        LOGGER.debug("SQL :",SQL_GET_RUN_CYCLE);
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_RUN_CYCLE ) ) {
             statement.setInt(1,icmJobId);
             statement.setString(2,scheduleDay);
             statement.setInt(3,scheduleTime);
@@ -956,8 +1597,8 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get RunCycle : " + e, sql, true );
+            LOGGER.error( "SQL: " + SQL_GET_RUN_CYCLE );
+            throw new DBOperationsException( "Could not get RunCycle : " + e, SQL_GET_RUN_CYCLE, true );
         }
 
 
@@ -966,6 +1607,10 @@ public class IcmDao extends MainDao {
 
 
 
+    private static final String SQL_GET_JOB_HISTORY_BY_RUN_LIST = "SELECT * " +
+            "FROM   icm_job_history " +
+            "WHERE  run_list_no = ?";
+
     /**
      * Get job history.
      * @param runListNo String
@@ -974,12 +1619,8 @@ public class IcmDao extends MainDao {
      */
     public IcmJobHistory getIcmJobHistory( String runListNo ) throws DBOperationsException {
         IcmJobHistory history = null;
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "SELECT * " );
-        sql.append( "FROM   icm_job_history " );
-        sql.append( "WHERE  run_list_no = ?" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_HISTORY_BY_RUN_LIST );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_JOB_HISTORY_BY_RUN_LIST ) ) {
             statement.setString( 1, runListNo );
             ResultSet result = statement.executeQuery();
             if( result.next() ) {
@@ -987,28 +1628,28 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job history[" + runListNo + "]: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_JOB_HISTORY_BY_RUN_LIST );
+            throw new DBOperationsException( "Could not get job history[" + runListNo + "]: " + e, SQL_GET_JOB_HISTORY_BY_RUN_LIST, true );
         }
         return history;
     }
 
+    private static final String SQL_GET_LAST_COMPLETED_PAYOUT = "SELECT max(h.start_date) " +
+            "FROM icm_job j " +
+            "INNER JOIN icm_job_history h on j.icm_job_id = h.icm_job_id " +
+            "WHERE j.job_name like '%payout%' and " +
+            "j.job_name not like '%final%' and " +
+            "h.end_date is not null";
+
     /**
      * Get last completed payout date.
      * @return LocalDate
      */
     public LocalDate getLastCompletedPayout() {
         LocalDate payout = null;
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "SELECT max(h.start_date) " );
-        sql.append( "FROM icm_job j " );
-        sql.append( "INNER JOIN icm_job_history h on j.icm_job_id = h.icm_job_id " );
-        sql.append( "WHERE j.job_name like '%payout%' and " );
-        sql.append( "j.job_name not like '%final%' and " );
-        sql.append( "h.end_date is not null" );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_LAST_COMPLETED_PAYOUT ) ) {
             ResultSet result = statement.executeQuery();
-            LOGGER.debug( "SQL: " + sql );
+            LOGGER.debug( "SQL: " + SQL_GET_LAST_COMPLETED_PAYOUT );
             if( result.next() ) {
                 Timestamp ts = result.getTimestamp( 1 );
                 if( ts != null ) {
@@ -1018,8 +1659,8 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get last completed payout date: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_LAST_COMPLETED_PAYOUT );
+            throw new DBOperationsException( "Could not get last completed payout date: " + e, SQL_GET_LAST_COMPLETED_PAYOUT, true );
         }
         return payout;
     }
@@ -1041,6 +1682,17 @@ public class IcmDao extends MainDao {
      */
     public List<IcmJobHistory> getInProcessJob( int icmJobId ) throws DBOperationsException {
         List<IcmJobHistory> history = new ArrayList<>();
+        forEachInProcessJob( icmJobId, history::add );
+        return history;
+    }
+
+    /**
+     * Pass each in process job for job id (0 for all) to the consumer as it is read.
+     * @param icmJobId int
+     * @param consumer Consumer
+     * @throws DBOperationsException exception
+     */
+    public void forEachInProcessJob( int icmJobId, Consumer<IcmJobHistory> consumer ) throws DBOperationsException {
         StringBuilder sql = new StringBuilder( 400 );
         sql.append( "SELECT   * " );
         sql.append( "FROM icm_job_history " );
@@ -1050,19 +1702,20 @@ public class IcmDao extends MainDao {
         sql.append( "ORDER BY start_date" );
         LOGGER.debug( "SQL: " + sql );
         try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+            statement.setFetchSize( fetchSize );
             if( icmJobId != 0 ) {
                 statement.setInt( 1, icmJobId );
             }
-            ResultSet result = statement.executeQuery();
-            while( result.next() ) {
-                history.add( mapJobHistory( result ) );
+            try( ResultSet result = statement.executeQuery() ) {
+                while( result.next() ) {
+                    consumer.accept( mapJobHistory( result ) );
+                }
             }
         }
         catch( Exception e ) {
             LOGGER.error( "SQL: " + sql );
             throw new DBOperationsException( "Could not get in process job[" + icmJobId + "]: " + e, sql.toString(), true );
         }
-        return history;
     }
 
     /**
@@ -1094,6 +1747,68 @@ public class IcmDao extends MainDao {
 
 
 
+    // Task history of several runs with the task names, in the order getIcmJobTaskHistory returns them.
+    private static final String SQL_GET_CURRENT_TASKS = "SELECT   th.icm_job_history_id, th.icm_job_task_id, th.end_date, h.icm_job_id, t.task_name " +
+            "FROM     icm_job_task_history th " +
+            "         inner join icm_job_history h on h.icm_job_history_id = th.icm_job_history_id " +
+            "         left join icm_job_task t on t.icm_job_id = h.icm_job_id and t.task_id = th.icm_job_task_id " +
+            "WHERE    th.icm_job_history_id in ";
+
+    /**
+     * Get the current task of several job runs in one query: the first task with no end date,
+     * else the last task by task id, the same task getIcmJobTaskHistory and getIcmJobTask give.
+     * Runs without task history are left out; a task without a definition has no task name.
+     * @param icmJobHistoryIds Collection of job history ids
+     * @return Map of job history id to task
+     * @throws DBOperationsException exception
+     */
+    public Map<Integer, IcmJobTask> getCurrentIcmJobTasks( Collection<Integer> icmJobHistoryIds ) throws DBOperationsException {
+        Map<Integer, IcmJobTask> tasks = new HashMap<>();
+        Set<Integer> open = new HashSet<>();
+        Map<Integer, Integer> lastTaskIds = new HashMap<>();
+        List<Integer> ids = new ArrayList<>( icmJobHistoryIds );
+        for( int i = 0; i < ids.size(); i += MERGE_BATCH_SIZE ) {
+            List<Integer> chunk = ids.subList( i, Math.min( ids.size(), i + MERGE_BATCH_SIZE ) );
+            String sql = SQL_GET_CURRENT_TASKS + values( 1, chunk.size() ) + " ORDER BY th.icm_job_history_id, th.start_date";
+            LOGGER.debug( "SQL: " + sql );
+            try( PreparedStatement statement = getConnection().prepareStatement( sql ) ) {
+                int p = 1;
+                for( int id : chunk ) {
+                    statement.setInt( p++, id );
+                }
+                try( ResultSet result = statement.executeQuery() ) {
+                    while( result.next() ) {
+                        int historyId = result.getInt( "icm_job_history_id" );
+                        if( open.contains( historyId ) ) {
+                            continue;
+                        }
+                        int taskId = result.getInt( "icm_job_task_id" );
+                        int lastTaskId = lastTaskIds.getOrDefault( historyId, 0 );
+                        boolean running = ( result.getTimestamp( "end_date" ) == null );
+                        // A task with no end date wins; otherwise take a task with a higher id than the one before it.
+                        if( running || lastTaskId == 0 || taskId > lastTaskId ) {
+                            IcmJobTask task = new IcmJobTask();
+                            task.setIcmJobId( result.getInt( "icm_job_id" ) );
+                            task.setTaskId( taskId );
+                            task.setTaskName( result.getString( "task_name" ) );
+                            tasks.put( historyId, task );
+                        }
+                        if( running ) {
+                            open.add( historyId );
+                        }
+                        lastTaskIds.put( historyId, taskId );
+                    }
+                }
+            }
+            catch( Exception e ) {
+                LOGGER.error( "SQL: " + sql );
+                throw new DBOperationsException( "Could not get current job tasks: " + e, sql, true );
+            }
+        }
+        LOGGER.debug( "Current tasks: " + tasks.size() + " of " + ids.size() + " runs" );
+        return tasks;
+    }
+
     /**
      * Get job history tasks.
      * @param icmJobHistoryId int
@@ -1103,22 +1818,19 @@ public class IcmDao extends MainDao {
 
         List<IcmJobTaskHistory> list = new ArrayList<>();
 
-        StringBuilder sql = new StringBuilder( 400 )
-                .append( "SELECT   * " )
-                .append( "FROM     icm_job_task_history " )
-                .append( "WHERE    icm_job_history_id = ? " )
-                .append( "ORDER BY start_date" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_JOB_TASK_HISTORY );
+        try {
+            PreparedStatement statement = prepareCached( SQL_GET_JOB_TASK_HISTORY );
             statement.setInt( 1, icmJobHistoryId );
-            ResultSet result = statement.executeQuery();
-            while( result.next() ) {
-                list.add( mapJobTaskHistory( result ) );
+            try( ResultSet result = statement.executeQuery() ) {
+                while( result.next() ) {
+                    list.add( mapJobTaskHistory( result ) );
+                }
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get job task history[" + icmJobHistoryId + "]: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_JOB_TASK_HISTORY );
+            throw new DBOperationsException( "Could not get job task history[" + icmJobHistoryId + "]: " + e, SQL_GET_JOB_TASK_HISTORY, true );
         }
 
         return list;
@@ -1148,6 +1860,12 @@ public class IcmDao extends MainDao {
         }
     }
 
+    private static final String SQL_UPDATE_JOB_TASK_HISTORY = "UPDATE icm_job_task_history " +
+            "SET    start_date = ?, " +
+            "       end_date   = ?, " +
+            "       message    = ? " +
+            "WHERE  icm_job_history_id = ? and icm_job_task_id = ?";
+
     /**
      * Update job task history task.
      * @param icmJobHistoryId int
@@ -1158,14 +1876,8 @@ public class IcmDao extends MainDao {
      * @param message         String
      */
     public void updateIcmJobTaskHistory( int icmJobHistoryId, int icmJobTaskId, int icmJobId, LocalDateTime startDate, LocalDateTime endDate, String message ) {
-        String sql = "" +
-                "UPDATE icm_job_task_history " +
-                "SET    start_date = ?, " +
-                "       end_date   = ?, " +
-                "       message    = ? " +
-                "WHERE  icm_job_history_id = ? and icm_job_task_id = ?";
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql, Statement.RETURN_GENERATED_KEYS ) ) {
+        LOGGER.debug( "SQL: " + SQL_UPDATE_JOB_TASK_HISTORY );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_UPDATE_JOB_TASK_HISTORY, Statement.RETURN_GENERATED_KEYS ) ) {
             statement.setTimestamp( 1, Timestamp.valueOf( startDate ) );
             statement.setTimestamp( 2, ( endDate != null ? Timestamp.valueOf( endDate ) : null ) );
             statement.setString( 3, message );
@@ -1180,11 +1892,29 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not update job task history[" + icmJobId + "]: " + e, sql, true );
+            LOGGER.error( "SQL: " + SQL_UPDATE_JOB_TASK_HISTORY );
+            throw new DBOperationsException( "Could not update job task history[" + icmJobId + "]: " + e, SQL_UPDATE_JOB_TASK_HISTORY, true );
         }
     }
 
+    private static final String SQL_INSERT_JOB_TASK_HISTORY = "INSERT INTO icm_job_task_history " +
+            "            ( " +
+            "            icm_job_history_id, " +
+            "            icm_job_task_id, " +
+            "            icm_job_id, " +
+            "            start_date, " +
+            "            end_date, " +
+            "            message " +
+            "            ) " +
+            "VALUES      ( " +
+            "             ?, " +
+            "             ?, " +
+            "             ?, " +
+            "             ?, " +
+            "             ?, " +
+            "             ? " +
+            "             )";
+
     /**
      * Insert job task history.
      * @param icmJobHistoryId int
@@ -1198,25 +1928,8 @@ public class IcmDao extends MainDao {
     protected int insertIcmJobTaskHistory( int icmJobHistoryId, int icmJobTaskId, int icmJobId, LocalDateTime startDate, LocalDateTime endDate, String message ) {
         ResultSet keys;
         int jobTaskHistoryId = 0;
-        String sql = "INSERT INTO icm_job_task_history " +
-                "            ( " +
-                "            icm_job_history_id, " +
-                "            icm_job_task_id, " +
-                "            icm_job_id, " +
-                "            start_date, " +
-                "            end_date, " +
-                "            message " +
-                "            ) " +
-                "VALUES      ( " +
-                "             ?, " +
-                "             ?, " +
-                "             ?, " +
-                "             ?, " +
-                "             ?, " +
-                "             ? " +
-                "             )";
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql, Statement.RETURN_GENERATED_KEYS ) ) {
+        LOGGER.debug( "SQL: " + SQL_INSERT_JOB_TASK_HISTORY );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_INSERT_JOB_TASK_HISTORY, Statement.RETURN_GENERATED_KEYS ) ) {
             statement.setInt( 1, icmJobHistoryId );
             statement.setInt( 2, icmJobTaskId );
             statement.setInt( 3, icmJobId );
@@ -1235,12 +1948,86 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not insert job task history[" + icmJobId + "]: " + e, sql, true );
+            LOGGER.error( "SQL: " + SQL_INSERT_JOB_TASK_HISTORY );
+            throw new DBOperationsException( "Could not insert job task history[" + icmJobId + "]: " + e, SQL_INSERT_JOB_TASK_HISTORY, true );
         }
         return jobTaskHistoryId;
     }
 
+    /**
+     * Update or insert job task history tasks in sets of {@link #MERGE_BATCH_SIZE} using one
+     * MERGE per set. Tasks with the same history/task id are written once using the last one.
+     * @param tasks List
+     * @return int[] task history id for each task, in list order
+     */
+    public int[] updateIcmJobTaskHistory( List<IcmJobTaskHistory> tasks ) {
+        int[] ids = new int[ tasks.size() ];
+        long begin = System.currentTimeMillis();
+        for( int from = 0; from < tasks.size(); from += MERGE_BATCH_SIZE ) {
+            int to = Math.min( from + MERGE_BATCH_SIZE, tasks.size() );
+            // Group duplicate keys so the MERGE never touches a row twice.
+            Map<String, List<Integer>> rows = new LinkedHashMap<>();
+            for( int i = from; i < to; i++ ) {
+                IcmJobTaskHistory t = tasks.get( i );
+                rows.computeIfAbsent( t.getIcmJobHistoryId() + "/" + t.getIcmJobTaskId(), k -> new ArrayList<>() ).add( i );
+            }
+            String sql = "MERGE icm_job_task_history AS t " +
+                    "USING ( VALUES " + values( rows.size(), 7 ) + " ) " +
+                    "      AS s ( rn, icm_job_history_id, icm_job_task_id, icm_job_id, start_date, end_date, message ) " +
+                    "ON    t.icm_job_history_id = s.icm_job_history_id and t.icm_job_task_id = s.icm_job_task_id " +
+                    "WHEN MATCHED THEN " +
+                    "     UPDATE SET start_date = s.start_date, " +
+                    "                end_date   = s.end_date, " +
+                    "                message    = s.message " +
+                    "WHEN NOT MATCHED THEN " +
+                    "     INSERT ( icm_job_history_id, icm_job_task_id, icm_job_id, start_date, end_date, message ) " +
+                    "     VALUES ( s.icm_job_history_id, s.icm_job_task_id, s.icm_job_id, s.start_date, s.end_date, s.message ) " +
+                    "OUTPUT s.rn, inserted.icm_job_task_history_id;";
+            LOGGER.debug( "SQL: " + sql );
+            try( PreparedStatement statement = getConnection().prepareStatement( sql ) ) {
+                int p = 1;
+                for( List<Integer> group : rows.values() ) {
+                    int last = group.get( group.size() - 1 );
+                    IcmJobTaskHistory t = tasks.get( last );
+                    statement.setInt( p++, last );
+                    statement.setInt( p++, t.getIcmJobHistoryId() );
+                    statement.setInt( p++, t.getIcmJobTaskId() );
+                    statement.setInt( p++, t.getIcmJobId() );
+                    statement.setTimestamp( p++, Timestamp.valueOf( t.getStart() ) );
+                    statement.setTimestamp( p++, ( t.getEnd() != null ? Timestamp.valueOf( t.getEnd() ) : null ) );
+                    statement.setString( p++, t.getMessage() );
+                }
+                Map<Integer, List<Integer>> byRow = new HashMap<>();
+                for( List<Integer> group : rows.values() ) {
+                    byRow.put( group.get( group.size() - 1 ), group );
+                }
+                ResultSet result = statement.executeQuery();
+                while( result.next() ) {
+                    int id = result.getInt( 2 );
+                    for( int i : byRow.get( result.getInt( 1 ) ) ) {
+                        ids[ i ] = id;
+                    }
+                }
+            }
+            catch( Exception e ) {
+                LOGGER.error( "SQL: " + sql );
+                throw new DBOperationsException( "Could not merge job task history[" + from + "-" + to + "]: " + e, sql, true );
+            }
+        }
+        logBatch( "Task history merged", tasks.size(), begin );
+        return ids;
+    }
+
+    private static final String SQL_UPDATE_JOB = "UPDATE icm_job " +
+            "SET    job_name      = ?, " +
+            "       job_desc      = ?, " +
+            "       wait_time     = ?, " +
+            "       warn_time     = ?, " +
+            "       max_wait_time = ?, " +
+            "       last_run      = ?, " +
+            "       active        = ? " +
+            "WHERE  icm_job_id    = ?";
+
     /**
      * Update job.
      * @param job IcmJob
@@ -1249,18 +2036,8 @@ public class IcmDao extends MainDao {
         if( job == null ) {
             throw new DBOperationsException( "Could not update job!" );
         }
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "UPDATE icm_job " );
-        sql.append( "SET    job_name      = ?, " );
-        sql.append( "       job_desc      = ?, " );
-        sql.append( "       wait_time     = ?, " );
-        sql.append( "       warn_time     = ?, " );
-        sql.append( "       max_wait_time = ?, " );
-        sql.append( "       last_run      = ?, " );
-        sql.append( "       active        = ? " );
-        sql.append( "WHERE  icm_job_id    = ?" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_UPDATE_JOB );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_UPDATE_JOB ) ) {
             statement.setString( 1, job.getName() );
             statement.setString( 2, job.getDesc() );
             statement.setInt( 3, job.getWaitSeconds() );
@@ -1272,33 +2049,59 @@ public class IcmDao extends MainDao {
             statement.executeUpdate();
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not update job: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_UPDATE_JOB );
+            throw new DBOperationsException( "Could not update job: " + e, SQL_UPDATE_JOB, true );
+        }
+        finally {
+            jobCatalog.invalidate();
         }
     }
 
+    private static final String SQL_UPDATE_LAST_RUN = "UPDATE icm_job " +
+            "SET    last_run = ? " +
+            "WHERE  icm_job_id = ?";
+
     /**
      * Update last run for job.
      * @param icmJobId int
      * @param lastRun  LocalDateTime
      */
     public void updateLastRun( int icmJobId, LocalDateTime lastRun ) throws DBOperationsException {
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "UPDATE icm_job " );
-        sql.append( "SET    last_run = ? " );
-        sql.append( "WHERE  icm_job_id = ?" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_UPDATE_LAST_RUN );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_UPDATE_LAST_RUN ) ) {
             statement.setTimestamp( 1, ( lastRun != null ? Timestamp.valueOf( lastRun ) : null ) );
             statement.setInt( 2, icmJobId );
             statement.executeUpdate();
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not update last run for job[" + icmJobId + "]: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_UPDATE_LAST_RUN );
+            throw new DBOperationsException( "Could not update last run for job[" + icmJobId + "]: " + e, SQL_UPDATE_LAST_RUN, true );
+        }
+        finally {
+            jobCatalog.invalidate();
         }
     }
 
+    private static final String SQL_INSERT_JOB_HISTORY = "INSERT INTO icm_job_history " +
+            "            ( " +
+            "            icm_job_id, " +
+            "            start_date, " +
+            "            end_date, " +
+            "            success, " +
+            "            message, " +
+            "            run_list_no, " +
+            "            filename " +
+            "            ) " +
+            "VALUES      ( " +
+            "             ?, " +
+            "             ?, " +
+            "             ?, " +
+            "             ?, " +
+            "             ?, " +
+            "             ?, " +
+            "             ? " +
+            "             )";
+
     /**
      * Insert job history.
      * @param icmJobId  int
@@ -1312,27 +2115,8 @@ public class IcmDao extends MainDao {
      */
     protected int insertIcmJobHistory( int icmJobId, LocalDateTime start, LocalDateTime end, boolean success, String message, String runListNo, String filename ) throws DBOperationsException {
         int historyId = 0;
-        String sql = "INSERT INTO icm_job_history " +
-                "            ( " +
-                "            icm_job_id, " +
-                "            start_date, " +
-                "            end_date, " +
-                "            success, " +
-                "            message, " +
-                "            run_list_no, " +
-                "            filename " +
-                "            ) " +
-                "VALUES      ( " +
-                "             ?, " +
-                "             ?, " +
-                "             ?, " +
-                "             ?, " +
-                "             ?, " +
-                "             ?, " +
-                "             ? " +
-                "             )";
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql, Statement.RETURN_GENERATED_KEYS ) ) {
+        LOGGER.debug( "SQL: " + SQL_INSERT_JOB_HISTORY );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_INSERT_JOB_HISTORY, Statement.RETURN_GENERATED_KEYS ) ) {
             statement.setInt( 1, icmJobId );
             statement.setTimestamp( 2, ( start != null ? Timestamp.valueOf( start ) : null ) );
             statement.setTimestamp( 3, ( end != null ? Timestamp.valueOf( end ) : null ) );
@@ -1352,8 +2136,8 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not insert job history[" + icmJobId + "]: " + e, sql, true );
+            LOGGER.error( "SQL: " + SQL_INSERT_JOB_HISTORY );
+            throw new DBOperationsException( "Could not insert job history[" + icmJobId + "]: " + e, SQL_INSERT_JOB_HISTORY, true );
         }
         return historyId;
     }
@@ -1370,6 +2154,95 @@ public class IcmDao extends MainDao {
         return id;
     }
 
+    /**
+     * Insert job history in sets of {@link #MERGE_BATCH_SIZE} using one statement per set.
+     * The generated id is set on each history.
+     * @param history List
+     * @return int[] history id for each history, in list order
+     */
+    protected int[] insertIcmJobHistory( List<IcmJobHistory> history ) throws DBOperationsException {
+        int[] ids = new int[ history.size() ];
+        long begin = System.currentTimeMillis();
+        for( int from = 0; from < history.size(); from += MERGE_BATCH_SIZE ) {
+            int to = Math.min( from + MERGE_BATCH_SIZE, history.size() );
+            // MERGE rather than INSERT so OUTPUT can return the row number with the key.
+            String sql = "MERGE icm_job_history AS t " +
+                    "USING ( VALUES " + values( to - from, 8 ) + " ) " +
+                    "      AS s ( rn, icm_job_id, start_date, end_date, success, message, run_list_no, filename ) " +
+                    "ON    1 = 0 " +
+                    "WHEN NOT MATCHED THEN " +
+                    "     INSERT ( icm_job_id, start_date, end_date, success, message, run_list_no, filename ) " +
+                    "     VALUES ( s.icm_job_id, s.start_date, s.end_date, s.success, s.message, s.run_list_no, s.filename ) " +
+                    "OUTPUT s.rn, inserted.icm_job_history_id;";
+            LOGGER.debug( "SQL: " + sql );
+            try( PreparedStatement statement = getConnection().prepareStatement( sql ) ) {
+                int p = 1;
+                for( int i = from; i < to; i++ ) {
+                    IcmJobHistory h = history.get( i );
+                    statement.setInt( p++, i );
+                    statement.setInt( p++, h.getJobId() );
+                    statement.setTimestamp( p++, ( h.getStart() != null ? Timestamp.valueOf( h.getStart() ) : null ) );
+                    statement.setTimestamp( p++, ( h.getEnd() != null ? Timestamp.valueOf( h.getEnd() ) : null ) );
+                    statement.setInt( p++, ( h.isSuccess() ? 1 : 0 ) );
+                    statement.setString( p++, h.getMessage() );
+                    statement.setString( p++, h.getRunListNo() );
+                    statement.setString( p++, h.getFilename() );
+                }
+                ResultSet result = statement.executeQuery();
+                while( result.next() ) {
+                    int i = result.getInt( 1 );
+                    ids[ i ] = result.getInt( 2 );
+                    history.get( i ).setId( ids[ i ] );
+                }
+            }
+            catch( Exception e ) {
+                LOGGER.error( "SQL: " + sql );
+                throw new DBOperationsException( "Could not insert job history[" + from + "-" + to + "]: " + e, sql, true );
+            }
+        }
+        logBatch( "History added", history.size(), begin );
+        return ids;
+    }
+
+    /**
+     * Build a VALUES row list of parameter markers.
+     * @param rows    int
+     * @param columns int
+     * @return String
+     */
+    private static String values( int rows, int columns ) {
+        StringBuilder row = new StringBuilder( columns * 2 + 2 ).append( '(' );
+        for( int c = 0; c < columns; c++ ) {
+            row.append( c > 0 ? ",?" : "?" );
+        }
+        row.append( ')' );
+        StringBuilder sb = new StringBuilder( rows * ( row.length() + 1 ) );
+        for( int r = 0; r < rows; r++ ) {
+            sb.append( r > 0 ? "," : "" ).append( row );
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Log the row count and rate of a batch write.
+     * @param what  String
+     * @param rows  int
+     * @param begin long start time in milliseconds
+     */
+    private static void logBatch( String what, int rows, long begin ) {
+        long ms = Math.max( 1, System.currentTimeMillis() - begin );
+        LOGGER.info( what + ": " + rows + " rows in " + ms + "ms (" + ( rows * 1000L / ms ) + " rows/sec)" );
+    }
+
+    private static final String SQL_UPDATE_JOB_HISTORY = "UPDATE icm_job_history " +
+            "SET    start_date  =  ?, " +
+            "       end_date    =  ?, " +
+            "       success     =  ?, " +
+            "       message     =  ?, " +
+            "       run_list_no =  ?, " +
+            "       filename    =  ? " +
+            "WHERE  icm_job_history_id = ?";
+
     /**
      * Update job history.
      * @param history IcmJobHistory
@@ -1378,17 +2251,8 @@ public class IcmDao extends MainDao {
         if( history.getStart() == null ) {
             history.setStart( LocalDateTime.now() );
         }
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "UPDATE icm_job_history " );
-        sql.append( "SET    start_date  =  ?, " );
-        sql.append( "       end_date    =  ?, " );
-        sql.append( "       success     =  ?, " );
-        sql.append( "       message     =  ?, " );
-        sql.append( "       run_list_no =  ?, " );
-        sql.append( "       filename    =  ? " );
-        sql.append( "WHERE  icm_job_history_id = ?" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_UPDATE_JOB_HISTORY );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_UPDATE_JOB_HISTORY ) ) {
             statement.setTimestamp( 1, ( history.getStart() != null ? Timestamp.valueOf( history.getStart() ) : null ) );
             statement.setTimestamp( 2, ( history.getEnd() != null ? Timestamp.valueOf( history.getEnd() ) : null ) );
             statement.setInt( 3, history.isSuccess() ? 1 : 0 );
@@ -1400,11 +2264,16 @@ public class IcmDao extends MainDao {
             LOGGER.debug( "History updated: " + i );
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not update job history: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_UPDATE_JOB_HISTORY );
+            throw new DBOperationsException( "Could not update job history: " + e, SQL_UPDATE_JOB_HISTORY, true );
         }
     }
 
+    private static final String SQL_GET_PRODUCER = "SELECT    p.party_id, p.large, p.retrieval, p.push_eqc " +
+            "FROM      icm_statement_producer p " +
+            "LEFT JOIN icm_statement s on s.party_id = p.party_id " +
+            "WHERE     p.party_id = ?";
+
     /**
      * Get statement producer.
      * @param partyId String
@@ -1412,13 +2281,8 @@ public class IcmDao extends MainDao {
      */
     public IcmProducer getStatementProducer( String partyId ) {
         IcmProducer producer = null;
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "SELECT    p.party_id, p.large, p.retrieval, p.push_eqc " );
-        sql.append( "FROM      icm_statement_producer p " );
-        sql.append( "LEFT JOIN icm_statement s on s.party_id = p.party_id " );
-        sql.append( "WHERE     p.party_id = ?" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_PRODUCER );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_PRODUCER ) ) {
             statement.setString( 1, partyId );
             ResultSet result = statement.executeQuery();
             if( result.next() ) {
@@ -1429,8 +2293,8 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get statement producer: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_PRODUCER );
+            throw new DBOperationsException( "Could not get statement producer: " + e, SQL_GET_PRODUCER, true );
         }
 
         return producer;
@@ -1459,20 +2323,20 @@ public class IcmDao extends MainDao {
         return producer;
     }
 
+    private static final String SQL_GET_DUPLICATE_PRODUCERS = "select party_id, count(*) dupes " +
+            "from icm_statement_producer " +
+            "group by party_id " +
+            "having count(*) > 1 " +
+            "order by 1 desc";
+
     /**
      * Get statement producers with duplicate party ids.
      * @return List
      */
     public List<IcmProducer> getDuplicatePartyIds() throws DBOperationsException {
         List<IcmProducer> list = new ArrayList<>();
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "select party_id, count(*) dupes " );
-        sql.append( "from icm_statement_producer " );
-        sql.append( "group by party_id " );
-        sql.append( "having count(*) > 1 " );
-        sql.append( "order by 1 desc" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_DUPLICATE_PRODUCERS );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_DUPLICATE_PRODUCERS ) ) {
             ResultSet result = statement.executeQuery();
             while( result.next() ) {
                 String pid = result.getString( 1 );
@@ -1481,12 +2345,17 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get duplicate party ids: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_DUPLICATE_PRODUCERS );
+            throw new DBOperationsException( "Could not get duplicate party ids: " + e, SQL_GET_DUPLICATE_PRODUCERS, true );
         }
         return list;
     }
 
+    private static final String SQL_GET_PRODUCERS_BY_SIZE = "SELECT   p.party_id, p.large, p.retrieval, p.push_eqc " +
+            "FROM     icm_statement_producer p " +
+            "WHERE    p.large = ? " +
+            "ORDER BY p.party_id";
+
     /**
      * Get statement producers with specified large value.
      * @param large int
@@ -1494,26 +2363,25 @@ public class IcmDao extends MainDao {
      */
     public List<IcmProducer> getStatementProducers( int large ) throws DBOperationsException {
         List<IcmProducer> list = new ArrayList<>();
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "SELECT   p.party_id, p.large, p.retrieval, p.push_eqc " );
-        sql.append( "FROM     icm_statement_producer p " );
-        sql.append( "WHERE    p.large = ? " );
-        sql.append( "ORDER BY p.party_id" );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_PRODUCERS_BY_SIZE ) ) {
             statement.setInt( 1, large );
             ResultSet result = statement.executeQuery();
-            LOGGER.debug( "SQL: " + sql );
+            LOGGER.debug( "SQL: " + SQL_GET_PRODUCERS_BY_SIZE );
             while( result.next() ) {
                 list.add( mapProducer( result ) );
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get statement producers: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_PRODUCERS_BY_SIZE );
+            throw new DBOperationsException( "Could not get statement producers: " + e, SQL_GET_PRODUCERS_BY_SIZE, true );
         }
         return list;
     }
 
+    private static final String SQL_GET_PRODUCERS = "SELECT   p.party_id, p.large, p.retrieval, p.push_eqc " +
+            "FROM     icm_statement_producer p " +
+            "ORDER BY p.party_id";
+
     /**
      * Get statement producers.
      * @return Map
@@ -1521,143 +2389,182 @@ public class IcmDao extends MainDao {
      */
     public Map<String, IcmProducer> getStatementProducers() throws DBOperationsException {
         Map<String, IcmProducer> map = new HashMap<>();
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "SELECT   p.party_id, p.large, p.retrieval, p.push_eqc " );
-        sql.append( "FROM     icm_statement_producer p " );
-        sql.append( "ORDER BY p.party_id" );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_PRODUCERS ) ) {
             ResultSet result = statement.executeQuery();
-            LOGGER.debug( "SQL: " + sql );
+            LOGGER.debug( "SQL: " + SQL_GET_PRODUCERS );
             while( result.next() ) {
                 IcmProducer p = mapProducer( result );
                 map.put( p.getPartyId(), p );
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get statement producers: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_PRODUCERS );
+            throw new DBOperationsException( "Could not get statement producers: " + e, SQL_GET_PRODUCERS, true );
         }
         return map;
     }
 
+    private static final String SQL_ADD_PRODUCERS = "insert into icm_statement_producer " +
+            " ( party_id, large, retrieval, push_eqc, date_added, date_updated ) " +
+            "select distinct party_id, ?, ?, ?, ?, ? " +
+            "from   icm_statement " +
+            "where  party_id not in ( select party_id " +
+            "from icm_statement_producer )";
+
     /**
-     * Add new producers to table.
+     * Add new producers to table with a single INSERT ... SELECT.
      * @return long
      * @throws DBOperationsException Exception
      */
     public long addStatementProducers() throws DBOperationsException {
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "select party_id " );
-        sql.append( "from   icm_statement " );
-        sql.append( "where  party_id not in ( select party_id " );
-        sql.append( "from icm_statement_producer )" );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
-            ResultSet result = statement.executeQuery();
-            long added = 0;
-            while( result.next() ) {
-                added += insertStatementProducer( result.getString( 1 ), 0 );
-            }
+        // Same defaults as insertStatementProducer( partyId, 0 ).
+        IcmProducer defaults = new IcmProducer( null );
+        defaults.setLarge( false );
+        Timestamp date = new Timestamp( System.currentTimeMillis() );
+        LOGGER.debug( "SQL: " + SQL_ADD_PRODUCERS );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_ADD_PRODUCERS ) ) {
+            statement.setInt( 1, defaults.isLarge() ? 1 : 0 );
+            statement.setInt( 2, retrieval( defaults ) );
+            statement.setInt( 3, defaults.isPushEcg() ? 1 : 0 );
+            statement.setTimestamp( 4, date );
+            statement.setTimestamp( 5, date );
+            long added = statement.executeUpdate();
+            LOGGER.info( "Statement producers added: " + added );
             return added;
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not update statement producers: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_ADD_PRODUCERS );
+            throw new DBOperationsException( "Could not update statement producers: " + e, SQL_ADD_PRODUCERS, true );
         }
     }
 
+    private static final String SQL_MERGE_PRODUCERS = "MERGE icm_statement_producer AS p " +
+            "USING ( select distinct party_id " +
+            "        from icm_statement " +
+            "        where month = ? and " +
+            "        year = ? and " +
+            "        file_type = ? and " +
+            "        bytes    >= ? and " +
+            "        party_id not in ( select party_id " +
+            "        from icm_statement_producer " +
+            "        where ? in (1,-1) ) ) AS s " +
+            "ON p.party_id = s.party_id " +
+            "WHEN MATCHED THEN " +
+            "     UPDATE SET large = ?, retrieval = ?, push_eqc = ?, date_updated = ? " +
+            "WHEN NOT MATCHED THEN " +
+            "     INSERT ( party_id, large, retrieval, push_eqc, date_added, date_updated ) " +
+            "     VALUES ( s.party_id, ?, ?, ?, ?, ? ) " +
+            "OUTPUT $action;";
+
     /**
-     * Update statement producer table with missing records.
+     * Update statement producer table with missing records using a single MERGE.
      * @param month    int
      * @param year     int
      * @param filetype String
      * @param filesize int
      * @param large    int
+     * @return long number of producers updated or inserted
      */
     public long updateStatementProducers( int month, int year, String filetype, float filesize, int large ) throws DBOperationsException {
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "select party_id " );
-        sql.append( "from icm_statement " );
-        sql.append( "where month = ? and " );
-        sql.append( "year = ? and " );
-        sql.append( "file_type = ? and " );
-        sql.append( "bytes    >= ? and " );
-        sql.append( "party_id not in ( select party_id " );
-        sql.append( "from icm_statement_producer " );
-        sql.append( "where ? in (1,-1) )" );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        // Same values as updateStatementProducer( partyId, large ).
+        IcmProducer values = new IcmProducer( null );
+        values.setLarge( large > 0 );
+        values.setRetrieval( 1 );
+        values.setPushEcg( false );
+        Timestamp date = new Timestamp( System.currentTimeMillis() );
+        LOGGER.debug( "SQL: " + SQL_MERGE_PRODUCERS );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_MERGE_PRODUCERS ) ) {
             statement.setInt( 1, month );
             statement.setInt( 2, year );
             statement.setString( 3, filetype );
             statement.setFloat( 4, filesize );
             statement.setInt( 5, large );
+            statement.setInt( 6, values.isLarge() ? 1 : 0 );
+            statement.setInt( 7, retrieval( values ) );
+            statement.setInt( 8, values.isPushEcg() ? 1 : 0 );
+            statement.setTimestamp( 9, date );
+            statement.setInt( 10, values.isLarge() ? 1 : 0 );
+            statement.setInt( 11, retrieval( values ) );
+            statement.setInt( 12, values.isPushEcg() ? 1 : 0 );
+            statement.setTimestamp( 13, date );
+            statement.setTimestamp( 14, date );
+            long inserted = 0;
+            long updated = 0;
             try( ResultSet result = statement.executeQuery() ) {
-                long updated = 0;
                 while( result.next() ) {
-                    updated += updateStatementProducer( result.getString( 1 ), large );
+                    if( "INSERT".equals( result.getString( 1 ) ) ) {
+                        inserted++;
+                    }
+                    else {
+                        updated++;
+                    }
                 }
-                return updated;
-            }
-            catch( Exception e ) {
-                LOGGER.error( "SQL: " + sql );
-                throw new DBOperationsException( "Could not update statement producers: " + e, sql.toString(), true );
             }
+            LOGGER.info( "Statement producers [" + filetype + "][" + large + "] updated: " + updated + " inserted: " + inserted );
+            return updated + inserted;
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not update statement producers: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_MERGE_PRODUCERS );
+            throw new DBOperationsException( "Could not update statement producers: " + e, SQL_MERGE_PRODUCERS, true );
         }
     }
 
+    /**
+     * Get the retrieval value to store for a producer, defaulting unexpected values.
+     * @param producer IcmProducer
+     * @return int
+     */
+    private static int retrieval( IcmProducer producer ) {
+        int retrieval = producer.getRetrieval();
+        return ( retrieval == IcmProducer.PROCESS_REPORT || retrieval == IcmProducer.EXTRACT ? retrieval : IcmProducer.PROCESS_REPORT );
+    }
+
+    private static final String SQL_INSERT_PRODUCER = "insert into icm_statement_producer " +
+            " ( party_id, " +
+            "   large, " +
+            "   retrieval, " +
+            "   push_eqc, " +
+            "   date_added, date_updated ) " +
+            " values ( ?, ?, ?, ?, ?, ?)";
+
     /**
      * Insert into statement producer table.
      * @param producer IcmProducer
      */
     protected long insertStatementProducer( IcmProducer producer ) throws DBOperationsException {
         Timestamp date = new Timestamp( System.currentTimeMillis() );
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "insert into icm_statement_producer " );
-        sql.append( " ( party_id, " );
-        sql.append( "   large, " );
-        sql.append( "   retrieval, " );
-        sql.append( "   push_eqc, " );
-        sql.append( "   date_added, date_updated ) " );
-        sql.append( " values ( ?, ?, ?, ?, ?, ?)" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_INSERT_PRODUCER );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_INSERT_PRODUCER ) ) {
             statement.setString( 1, producer.getPartyId() );
             statement.setInt( 2, producer.isLarge() ? 1 : 0 );
-            int retrieval = producer.getRetrieval();
-            retrieval = ( retrieval == IcmProducer.PROCESS_REPORT || retrieval == IcmProducer.EXTRACT ? retrieval : IcmProducer.PROCESS_REPORT );
-            statement.setInt( 3, retrieval );
+            statement.setInt( 3, retrieval( producer ) );
             statement.setInt( 4, producer.isPushEcg() ? 1 : 0 );
             statement.setTimestamp( 5, date );
             statement.setTimestamp( 6, date );
             return statement.executeUpdate();
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not insert statement producer: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_INSERT_PRODUCER );
+            throw new DBOperationsException( "Could not insert statement producer: " + e, SQL_INSERT_PRODUCER, true );
         }
     }
 
+    private static final String SQL_UPDATE_PRODUCER = "update icm_statement_producer " +
+            "set    large        = ?, " +
+            "       retrieval    = ?, " +
+            "       push_eqc     = ?, " +
+            "       date_updated = ? " +
+            "where  party_id     = ?";
+
     /**
      * Update statement producer table.
      * @param producer IcmProducer
      */
     public long updateStatementProducer( IcmProducer producer ) throws DBOperationsException {
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "update icm_statement_producer " );
-        sql.append( "set    large        = ?, " );
-        sql.append( "       retrieval    = ?, " );
-        sql.append( "       push_eqc     = ?, " );
-        sql.append( "       date_updated = ? " );
-        sql.append( "where  party_id     = ?" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_UPDATE_PRODUCER );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_UPDATE_PRODUCER ) ) {
             statement.setInt( 1, producer.isLarge() ? 1 : 0 );
-            int retrieval = producer.getRetrieval();
-            retrieval = ( retrieval == IcmProducer.PROCESS_REPORT || retrieval == IcmProducer.EXTRACT ? retrieval : IcmProducer.PROCESS_REPORT );
-            statement.setInt( 2, retrieval );
+            statement.setInt( 2, retrieval( producer ) );
             statement.setInt( 3, producer.isPushEcg() ? 1 : 0 );
             statement.setTimestamp( 4, new Timestamp( System.currentTimeMillis() ) );
             statement.setString( 5, producer.getPartyId() );
@@ -1668,8 +2575,8 @@ public class IcmDao extends MainDao {
             return i;
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not update statement producer: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_UPDATE_PRODUCER );
+            throw new DBOperationsException( "Could not update statement producer: " + e, SQL_UPDATE_PRODUCER, true );
         }
     }
 
@@ -1708,34 +2615,29 @@ public class IcmDao extends MainDao {
      */
     public IcmStatement getStatement( String partyId, String type, int year, int month ) {
         IcmStatement stmt = null;
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "SELECT   party_id, file_type, year, month, bytes, rowct, stime " );
-        sql.append( "FROM     icm_statement " );
-        sql.append( "WHERE    party_id = ? and" );
-        sql.append( "         file_type = ? and" );
-        sql.append( "         year = ? and" );
-        sql.append( "         month = ? " );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_STATEMENT );
+        try {
+            PreparedStatement statement = prepareCached( SQL_GET_STATEMENT );
             statement.setString( 1, partyId );
             statement.setString( 2, type );
             statement.setInt( 3, year );
             statement.setInt( 4, month );
-            ResultSet result = statement.executeQuery();
-            if( result.next() ) {
-                stmt = new IcmStatement();
-                stmt.setPartyId( result.getString( "party_id" ) );
-                stmt.setFileType( result.getString( "file_type" ) );
-                stmt.setYear( result.getInt( "year" ) );
-                stmt.setMonth( result.getInt( "month" ) );
-                stmt.setBytes( result.getLong( "bytes" ) );
-                stmt.setRows( result.getLong( "rowct" ) );
-                stmt.setTime( result.getString( "stime" ) );
+            try( ResultSet result = statement.executeQuery() ) {
+                if( result.next() ) {
+                    stmt = new IcmStatement();
+                    stmt.setPartyId( result.getString( "party_id" ) );
+                    stmt.setFileType( result.getString( "file_type" ) );
+                    stmt.setYear( result.getInt( "year" ) );
+                    stmt.setMonth( result.getInt( "month" ) );
+                    stmt.setBytes( result.getLong( "bytes" ) );
+                    stmt.setRows( result.getLong( "rowct" ) );
+                    stmt.setTime( result.getString( "stime" ) );
+                }
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get statement: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_STATEMENT );
+            throw new DBOperationsException( "Could not get statement: " + e, SQL_GET_STATEMENT, true );
         }
         return stmt;
     }
@@ -1753,19 +2655,10 @@ public class IcmDao extends MainDao {
     public void updateStatement( String partyId, String type, int year, int month, long bytes, long rows, String time ) throws DBOperationsException {
         Timestamp date = new Timestamp( System.currentTimeMillis() );
         type = RunIcmStatements.CSVFTP.equals( type ) ? RunIcmStatements.CSV : type;
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "update icm_statement " );
-        sql.append( "set    bytes        = ?, " );
-        sql.append( "       rowct        = ?, " );
-        sql.append( "       stime        = ?, " );
-        sql.append( "       date_updated = ? " );
-        sql.append( "where  party_id     = ? and " );
-        sql.append( "       file_type    = ? and " );
-        sql.append( "       year         = ? and " );
-        sql.append( "       month        = ? " );
-        LOGGER.debug( "SQL: " + sql );
+        LOGGER.debug( "SQL: " + SQL_UPDATE_STATEMENT );
 
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        try {
+            PreparedStatement statement = prepareCached( SQL_UPDATE_STATEMENT );
             statement.setLong( 1, bytes );
             statement.setLong( 2, rows );
             statement.setString( 3, time );
@@ -1780,9 +2673,60 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not update statement: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_UPDATE_STATEMENT );
+            throw new DBOperationsException( "Could not update statement: " + e, SQL_UPDATE_STATEMENT, true );
+        }
+    }
+
+    /**
+     * Update or insert statements in sets of {@link #MERGE_BATCH_SIZE} using one MERGE per set.
+     * Statements must be unique by party id, type, year and month.
+     * @param statements Collection
+     * @return int number of statements written
+     */
+    public int mergeStatements( Collection<IcmStatement> statements ) throws DBOperationsException {
+        List<IcmStatement> list = new ArrayList<>( statements );
+        Timestamp date = new Timestamp( System.currentTimeMillis() );
+        long begin = System.currentTimeMillis();
+        int merged = 0;
+        for( int from = 0; from < list.size(); from += MERGE_BATCH_SIZE ) {
+            int to = Math.min( from + MERGE_BATCH_SIZE, list.size() );
+            String sql = "MERGE icm_statement AS t " +
+                    "USING ( VALUES " + values( to - from, 7 ) + " ) " +
+                    "      AS s ( party_id, file_type, year, month, bytes, rowct, stime ) " +
+                    "ON    t.party_id = s.party_id and t.file_type = s.file_type and " +
+                    "      t.year = s.year and t.month = s.month " +
+                    "WHEN MATCHED THEN " +
+                    "     UPDATE SET bytes = s.bytes, rowct = s.rowct, stime = s.stime, date_updated = ? " +
+                    "WHEN NOT MATCHED THEN " +
+                    "     INSERT ( party_id, file_type, year, month, bytes, rowct, stime, date_added, date_updated ) " +
+                    "     VALUES ( s.party_id, s.file_type, s.year, s.month, s.bytes, s.rowct, s.stime, ?, ? );";
+            LOGGER.debug( "SQL: " + sql );
+            try( PreparedStatement statement = getConnection().prepareStatement( sql ) ) {
+                int p = 1;
+                for( int i = from; i < to; i++ ) {
+                    IcmStatement st = list.get( i );
+                    String type = st.getFileType();
+                    statement.setString( p++, st.getPartyId() );
+                    statement.setString( p++, RunIcmStatements.CSVFTP.equals( type ) ? RunIcmStatements.CSV : type );
+                    statement.setInt( p++, st.getYear() );
+                    statement.setInt( p++, st.getMonth() );
+                    statement.setLong( p++, st.getBytes() );
+                    statement.setLong( p++, st.getRows() );
+                    statement.setString( p++, st.getTime() );
+                }
+                statement.setTimestamp( p++, date );
+                statement.setTimestamp( p++, date );
+                statement.setTimestamp( p, date );
+                merged += statement.executeUpdate();
+            }
+            catch( Exception e ) {
+                LOGGER.error( "SQL: " + sql );
+                throw new DBOperationsException( "Could not merge statements[" + from + "-" + to + "]: " + e, sql, true );
+            }
         }
+        logBatch( "Statements merged", list.size(), begin );
+        return merged;
     }
 
     /**
@@ -1797,16 +2741,9 @@ public class IcmDao extends MainDao {
      */
     protected void insertStatement( String partyId, String type, int year, int month, long bytes, long rows, String time ) throws DBOperationsException {
         Timestamp date = new Timestamp( System.currentTimeMillis() );
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "insert into icm_statement " );
-        sql.append( " ( party_id, file_type, year, month, " );
-        sql.append( "   bytes, rowct, stime, " );
-        sql.append( "   date_added, date_updated ) " );
-        sql.append( " values ( ?, ?, ?, ?, " );
-        sql.append( "          ?, ?, ?, " );
-        sql.append( "          ?, ?)" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_INSERT_STATEMENT );
+        try {
+            PreparedStatement statement = prepareCached( SQL_INSERT_STATEMENT );
             statement.setString( 1, partyId );
             statement.setString( 2, type );
             statement.setInt( 3, year );
@@ -1819,11 +2756,16 @@ public class IcmDao extends MainDao {
             statement.executeUpdate();
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not insert statement: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_INSERT_STATEMENT );
+            throw new DBOperationsException( "Could not insert statement: " + e, SQL_INSERT_STATEMENT, true );
         }
     }
 
+    private static final String SQL_GET_STATEMENT_RUNS = "SELECT   * " +
+            "FROM     icm_statement_run " +
+            "WHERE    start_date > ? or end_date > ? " +
+            "ORDER BY start_date";
+
     /**
      * Get statement runs after start date.
      * @param start LocalDateTime
@@ -1831,13 +2773,8 @@ public class IcmDao extends MainDao {
      */
     public List<IcmStatementRun> getStatementRun( LocalDateTime start ) {
         List<IcmStatementRun> runs = new ArrayList<>();
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "SELECT   * " );
-        sql.append( "FROM     icm_statement_run " );
-        sql.append( "WHERE    start_date > ? or end_date > ? " );
-        sql.append( "ORDER BY start_date" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_GET_STATEMENT_RUNS );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_STATEMENT_RUNS ) ) {
             statement.setTimestamp( 1, ( start != null ? Timestamp.valueOf( start ) : null ) );
             statement.setTimestamp( 2, ( start != null ? Timestamp.valueOf( start ) : null ) );
             ResultSet result = statement.executeQuery();
@@ -1853,14 +2790,23 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not get statement run: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_GET_STATEMENT_RUNS );
+            throw new DBOperationsException( "Could not get statement run: " + e, SQL_GET_STATEMENT_RUNS, true );
         }
         return runs;
     }
 
+    private static final String SQL_UPDATE_STATEMENT_RUN = "update icm_statement_run " +
+            "set    statement_type   = ?, " +
+            "       statement_count  = ?, " +
+            "       start_date       = ?, " +
+            "       end_date         = ?, " +
+            "       payout_year      = ?, " +
+            "       payout_month     = ? " +
+            "where  statement_run_id = ?";
+
     /**
-     * Update statement run.
+     * Update statement run, recording the configured payout month.
      * @param statementRunId int
      * @param type           String
      * @param count          int
@@ -1868,20 +2814,14 @@ public class IcmDao extends MainDao {
      * @param end            LocalDateTime
      */
     protected void updateStatementRun( int statementRunId, String type, int count, LocalDateTime start, LocalDateTime end ) throws DBOperationsException {
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "update icm_statement_run " );
-        sql.append( "set    statement_type   = ?, " );
-        sql.append( "       statement_count  = ?, " );
-        sql.append( "       start_date       = ?, " );
-        sql.append( "       end_date         = ? " );
-        sql.append( "where  statement_run_id = ?" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString() ) ) {
+        LOGGER.debug( "SQL: " + SQL_UPDATE_STATEMENT_RUN );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_UPDATE_STATEMENT_RUN ) ) {
             statement.setString( 1, type );
             statement.setInt( 2, count );
             statement.setTimestamp( 3, ( start != null ? Timestamp.valueOf( start ) : null ) );
             statement.setTimestamp( 4, ( end != null ? Timestamp.valueOf( end ) : null ) );
-            statement.setInt( 5, statementRunId );
+            setPayoutMonth( statement, 5 );
+            statement.setInt( 7, statementRunId );
             int i = statement.executeUpdate();
             if( i == 0 ) {
                 i = insertStatementRun( type, count, start, end );
@@ -1889,13 +2829,17 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not update statement run: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_UPDATE_STATEMENT_RUN );
+            throw new DBOperationsException( "Could not update statement run: " + e, SQL_UPDATE_STATEMENT_RUN, true );
         }
     }
 
+    private static final String SQL_INSERT_STATEMENT_RUN = "insert into icm_statement_run " +
+            " ( statement_type, statement_count, start_date, end_date, payout_year, payout_month ) " +
+            " values ( ?, ?, ?, ?, ?, ? )";
+
     /**
-     * Insert statement run.
+     * Insert statement run, recording the configured payout month.
      * @param type  String
      * @param count int
      * @param start LocalDateTime
@@ -1904,16 +2848,13 @@ public class IcmDao extends MainDao {
     protected int insertStatementRun( String type, int count, LocalDateTime start, LocalDateTime end ) throws DBOperationsException {
         ResultSet keys;
         int statementRunId = 0;
-        StringBuilder sql = new StringBuilder( 400 );
-        sql.append( "insert into icm_statement_run " );
-        sql.append( " ( statement_type, statement_count, start_date, end_date ) " );
-        sql.append( " values ( ?, ?, ?, ? )" );
-        LOGGER.debug( "SQL: " + sql );
-        try( PreparedStatement statement = getConnection().prepareStatement( sql.toString(), Statement.RETURN_GENERATED_KEYS ) ) {
+        LOGGER.debug( "SQL: " + SQL_INSERT_STATEMENT_RUN );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_INSERT_STATEMENT_RUN, Statement.RETURN_GENERATED_KEYS ) ) {
             statement.setString( 1, type );
             statement.setInt( 2, count );
             statement.setTimestamp( 3, ( start != null ? Timestamp.valueOf( start ) : null ) );
             statement.setTimestamp( 4, ( end != null ? Timestamp.valueOf( end ) : null ) );
+            setPayoutMonth( statement, 5 );
             statement.executeUpdate();
             keys = statement.getGeneratedKeys();
             if( keys.next() ) {
@@ -1925,12 +2866,192 @@ public class IcmDao extends MainDao {
             }
         }
         catch( Exception e ) {
-            LOGGER.error( "SQL: " + sql );
-            throw new DBOperationsException( "Could not insert statement run: " + e, sql.toString(), true );
+            LOGGER.error( "SQL: " + SQL_INSERT_STATEMENT_RUN );
+            throw new DBOperationsException( "Could not insert statement run: " + e, SQL_INSERT_STATEMENT_RUN, true );
         }
         return statementRunId;
     }
 
+    /**
+     * Set the year and month of the configured payout date, or nulls when it is not set.
+     * icm_statement_run has payout_year and payout_month (see icm_statement_run_payout.sql).
+     * @param statement PreparedStatement
+     * @param index     int parameter of the year; the month follows it
+     */
+    private void setPayoutMonth( PreparedStatement statement, int index ) throws SQLException {
+        LocalDate payout = null;
+        String value = getConfig( Config.ICM_STATEMENTS_PAYOUTDATE );
+        try {
+            payout = ( value != null ? LocalDate.parse( value.trim(), DateTimeFormatter.BASIC_ISO_DATE ) : null );
+        }
+        catch( DateTimeParseException e ) {
+            LOGGER.warn( "Invalid payout date: " + value );
+        }
+        if( payout != null ) {
+            statement.setInt( index, payout.getYear() );
+            statement.setInt( index + 1, payout.getMonthValue() );
+        }
+        else {
+            statement.setNull( index, Types.INTEGER );
+            statement.setNull( index + 1, Types.INTEGER );
+        }
+    }
+
+    private static final String SQL_GET_FDS_TOTALS = "SELECT   statement_type, statement_count, watermark " +
+            "FROM     icm_fds_statement_total " +
+            "WHERE    year = ? and month = ?";
+
+    /**
+     * Get the stored FDS statement totals of a payout month.
+     * Table icm_fds_statement_total (see icm_fds_statement_total.sql) has one row per year,
+     * month and statement_type with statement_count and the watermark (end date of the last
+     * statement run counted).
+     * @param year  int
+     * @param month int
+     * @return IcmFdsTotals or null when the month has no totals yet
+     */
+    public IcmFdsTotals getFdsStatementTotals( int year, int month ) throws DBOperationsException {
+        LOGGER.debug( "SQL: " + SQL_GET_FDS_TOTALS );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_FDS_TOTALS ) ) {
+            statement.setInt( 1, year );
+            statement.setInt( 2, month );
+            Map<String, Integer> counts = new HashMap<>();
+            LocalDateTime watermark = null;
+            try( ResultSet result = statement.executeQuery() ) {
+                while( result.next() ) {
+                    counts.put( result.getString( "statement_type" ), result.getInt( "statement_count" ) );
+                    Timestamp w = result.getTimestamp( "watermark" );
+                    if( w != null && ( watermark == null || w.toLocalDateTime().isAfter( watermark ) ) ) {
+                        watermark = w.toLocalDateTime();
+                    }
+                }
+            }
+            return ( counts.isEmpty() ? null : new IcmFdsTotals( year, month, counts, watermark ) );
+        }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + SQL_GET_FDS_TOTALS );
+            throw new DBOperationsException( "Could not get FDS statement totals: " + e, SQL_GET_FDS_TOTALS, true );
+        }
+    }
+
+    private static final String SQL_GET_STATEMENT_RUN_COUNTS = "SELECT   statement_type, sum(statement_count) as statement_count, max(end_date) as end_date " +
+            "FROM     icm_statement_run " +
+            "WHERE    end_date > ? and " +
+            "         ( ( payout_year = ? and payout_month = ? ) or " +
+            "           ( payout_year is null and start_date >= ? and start_date < ? ) ) " +
+            "GROUP BY statement_type";
+
+    /**
+     * Add the counts of the statement runs of the payout month of the totals that ended after
+     * the watermark. Runs recorded before icm_statement_run had a payout month are taken to be
+     * for the calendar month they started in; see {@link #hasUnmatchedStatementRuns}.
+     * @param totals IcmFdsTotals
+     * @return boolean true if any run was added
+     */
+    public boolean addStatementRunCounts( IcmFdsTotals totals ) throws DBOperationsException {
+        LOGGER.debug( "SQL: " + SQL_GET_STATEMENT_RUN_COUNTS );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_GET_STATEMENT_RUN_COUNTS ) ) {
+            LocalDateTime from = LocalDate.of( totals.getYear(), totals.getMonth(), 1 ).atStartOfDay();
+            LocalDateTime watermark = totals.getWatermark();
+            statement.setTimestamp( 1, Timestamp.valueOf( watermark != null ? watermark : from ) );
+            statement.setInt( 2, totals.getYear() );
+            statement.setInt( 3, totals.getMonth() );
+            statement.setTimestamp( 4, Timestamp.valueOf( from ) );
+            statement.setTimestamp( 5, Timestamp.valueOf( from.plusMonths( 1 ) ) );
+            Map<String, Integer> delta = new HashMap<>();
+            LocalDateTime until = null;
+            try( ResultSet result = statement.executeQuery() ) {
+                while( result.next() ) {
+                    String type = result.getString( "statement_type" );
+                    type = ( RunIcmStatements.XLSX.equalsIgnoreCase( type ) ? RunIcmStatements.XLS : type );
+                    delta.merge( type, result.getInt( "statement_count" ), Integer::sum );
+                    LocalDateTime end = result.getTimestamp( "end_date" ).toLocalDateTime();
+                    until = ( until == null || end.isAfter( until ) ? end : until );
+                }
+            }
+            if( delta.isEmpty() ) {
+                return false;
+            }
+            LOGGER.info( "Statement runs since {}: {}", watermark, delta );
+            totals.add( delta, until );
+            return true;
+        }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + SQL_GET_STATEMENT_RUN_COUNTS );
+            throw new DBOperationsException( "Could not get statement run counts: " + e, SQL_GET_STATEMENT_RUN_COUNTS, true );
+        }
+    }
+
+    private static final String SQL_COUNT_UNMATCHED_STATEMENT_RUNS = "SELECT   count(*) as runs " +
+            "FROM     icm_statement_run " +
+            "WHERE    end_date > ? and payout_year is null and " +
+            "         ( start_date < ? or start_date >= ? )";
+
+    /**
+     * Check for statement runs without a payout month that ended after the watermark but
+     * started outside the calendar month of the totals. addStatementRunCounts cannot tell
+     * which month these are for, so the totals can only be trusted after a full FDS count.
+     * @param totals IcmFdsTotals
+     * @return boolean true if there are such runs
+     */
+    public boolean hasUnmatchedStatementRuns( IcmFdsTotals totals ) throws DBOperationsException {
+        LOGGER.debug( "SQL: " + SQL_COUNT_UNMATCHED_STATEMENT_RUNS );
+        try( PreparedStatement statement = getConnection().prepareStatement( SQL_COUNT_UNMATCHED_STATEMENT_RUNS ) ) {
+            LocalDateTime from = LocalDate.of( totals.getYear(), totals.getMonth(), 1 ).atStartOfDay();
+            LocalDateTime watermark = totals.getWatermark();
+            statement.setTimestamp( 1, Timestamp.valueOf( watermark != null ? watermark : from ) );
+            statement.setTimestamp( 2, Timestamp.valueOf( from ) );
+            statement.setTimestamp( 3, Timestamp.valueOf( from.plusMonths( 1 ) ) );
+            try( ResultSet result = statement.executeQuery() ) {
+                return ( result.next() && result.getInt( "runs" ) > 0 );
+            }
+        }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + SQL_COUNT_UNMATCHED_STATEMENT_RUNS );
+            throw new DBOperationsException( "Could not count unmatched statement runs: " + e, SQL_COUNT_UNMATCHED_STATEMENT_RUNS, true );
+        }
+    }
+
+    /**
+     * Update or insert the FDS statement totals of a payout month using a single MERGE.
+     * @param totals IcmFdsTotals
+     */
+    public void updateFdsStatementTotals( IcmFdsTotals totals ) throws DBOperationsException {
+        Map<String, Integer> counts = totals.getCounts();
+        if( counts.isEmpty() ) {
+            return;
+        }
+        String sql = "MERGE icm_fds_statement_total AS t " +
+                "USING ( VALUES " + values( counts.size(), 5 ) + " ) " +
+                "      AS s ( year, month, statement_type, statement_count, watermark ) " +
+                "ON    t.year = s.year and t.month = s.month and t.statement_type = s.statement_type " +
+                "WHEN MATCHED THEN " +
+                "     UPDATE SET statement_count = s.statement_count, " +
+                "                watermark       = s.watermark, " +
+                "                date_updated    = getdate() " +
+                "WHEN NOT MATCHED THEN " +
+                "     INSERT ( year, month, statement_type, statement_count, watermark, date_updated ) " +
+                "     VALUES ( s.year, s.month, s.statement_type, s.statement_count, s.watermark, getdate() );";
+        LOGGER.debug( "SQL: " + sql );
+        try( PreparedStatement statement = getConnection().prepareStatement( sql ) ) {
+            Timestamp watermark = ( totals.getWatermark() != null ? Timestamp.valueOf( totals.getWatermark() ) : null );
+            int p = 1;
+            for( Map.Entry<String, Integer> e : counts.entrySet() ) {
+                statement.setInt( p++, totals.getYear() );
+                statement.setInt( p++, totals.getMonth() );
+                statement.setString( p++, e.getKey() );
+                statement.setInt( p++, e.getValue() );
+                statement.setTimestamp( p++, watermark );
+            }
+            int i = statement.executeUpdate();
+            LOGGER.debug( "FDS statement totals merged: " + i );
+        }
+        catch( Exception e ) {
+            LOGGER.error( "SQL: " + sql );
+            throw new DBOperationsException( "Could not merge FDS statement totals: " + e, sql, true );
+        }
+    }
+
     /**
      * Validate producers.
      */
@@ -0,0 +1,140 @@
+package com.uhc.optum.icm.webservice;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Runs independent IcmDao lookups at the same time, each on its own thread and with its own
+ * IcmDao, and so its own connection. Lookups run on virtual threads when the JVM has them and
+ * on a cached pool otherwise. A semaphore caps the queries in flight so SQL Server is not
+ * flooded; further lookups wait for a permit on their own thread, never on the caller's.
+ * {@link IcmDaoAsyncBenchmark} measures lookup latency against the database by concurrency.
+ */
+public class IcmDaoAsync implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmDaoAsync.class );
+
+    /** Default queries in flight. */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private final BlockingQueue<IcmDao> daos;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+
+    /**
+     * @param name        String database name passed to each IcmDao
+     * @param concurrency int queries in flight, and IcmDao instances kept
+     */
+    public IcmDaoAsync( String name, int concurrency ) {
+        int n = Math.max( 1, concurrency );
+        this.daos = new ArrayBlockingQueue<>( n );
+        for( int i = 0; i < n; i++ ) {
+            daos.add( new IcmDao( name ) );
+        }
+        this.permits = new Semaphore( n, true );
+        this.executor = newExecutor();
+    }
+
+    /**
+     * Share one IcmDao using a connection pool; each lookup borrows its own connection and
+     * returns it when done.
+     * @param dao         IcmDao with a connection pool
+     * @param concurrency int queries in flight, capped at the pool size
+     * @throws IllegalArgumentException if the IcmDao has no connection pool
+     */
+    public IcmDaoAsync( IcmDao dao, int concurrency ) {
+        IcmConnectionPool pool = dao.getConnectionPool();
+        if( pool == null ) {
+            // Without a pool every lookup would share the one MainDao connection.
+            throw new IllegalArgumentException( "IcmDao has no connection pool" );
+        }
+        int n = Math.max( 1, Math.min( concurrency, pool.getMax() ) );
+        if( n < concurrency ) {
+            LOGGER.info( "Concurrency {} capped at the pool size {}", concurrency, n );
+        }
+        this.daos = new ArrayBlockingQueue<>( n );
+        for( int i = 0; i < n; i++ ) {
+            daos.add( dao );
+        }
+        this.permits = new Semaphore( n, true );
+        this.executor = newExecutor();
+    }
+
+    /**
+     * @param name String database name passed to each IcmDao
+     */
+    public IcmDaoAsync( String name ) {
+        this( name, DEFAULT_CONCURRENCY );
+    }
+
+    /**
+     * Create a virtual thread per task executor, or a cached pool of daemon threads before Java 21.
+     * @return ExecutorService
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            ExecutorService e = (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+            LOGGER.debug( "Using virtual threads" );
+            return e;
+        }
+        catch( ReflectiveOperationException e ) {
+            LOGGER.debug( "Virtual threads not available, using a cached pool" );
+            return Executors.newCachedThreadPool( r -> {
+                Thread t = new Thread( r, "IcmDaoAsync" );
+                t.setDaemon( true );
+                return t;
+            } );
+        }
+    }
+
+    /**
+     * Run a lookup on a free IcmDao.
+     * @param query Function of the IcmDao to the result, e.g. dao -> dao.getIcmJob( id )
+     * @param <T>   result type
+     * @return CompletableFuture completed with the result, or exceptionally with the lookup exception
+     */
+    public <T> CompletableFuture<T> submit( Function<IcmDao, T> query ) {
+        return CompletableFuture.supplyAsync( () -> {
+            IcmDao dao = null;
+            try {
+                permits.acquire();
+                try {
+                    dao = daos.take();
+                    return query.apply( dao );
+                }
+                finally {
+                    if( dao != null ) {
+                        dao.releaseConnection();
+                        daos.add( dao );
+                    }
+                    permits.release();
+                }
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException( e );
+            }
+        }, executor );
+    }
+
+    /**
+     * @return int queries that can start now
+     */
+    public int getAvailable() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
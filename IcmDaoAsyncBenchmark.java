@@ -0,0 +1,145 @@
+package com.uhc.optum.icm.webservice;
+
+import com.uhc.optum.dao.MainDao;
+import com.uhc.optum.util.LogUtil;
+import com.uhc.optum.util.StringUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link IcmDaoAsync} against the ICM database. The recent history of every job is read
+ * once per concurrency level (1, 2, 4 and 8, capped at the pool size), after a warm-up pass at
+ * concurrency 1, and the wall time and lookup latencies of each level are logged.
+ * Arguments: poolsize=8 rows=10 rounds=3.
+ */
+public class IcmDaoAsyncBenchmark {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmDaoAsyncBenchmark.class );
+
+    private static final int[] LEVELS = { 1, 2, 4, 8 };
+
+    private int poolSize = 8;
+    private int rows = 10;
+    private int rounds = 3;
+
+    public static void main( String[] args ) {
+        LOGGER.info( "IcmDaoAsyncBenchmark.main - start" );
+        try {
+            IcmDaoAsyncBenchmark b = new IcmDaoAsyncBenchmark();
+            b.processArgs( args );
+            b.run();
+        }
+        catch( Exception e ) {
+            LOGGER.error( "Exception: " , e );
+            LogUtil.printStackTrace( e );
+            System.exit( -1 );
+        }
+        LOGGER.info( "IcmDaoAsyncBenchmark.main - stop" );
+    }
+
+    private void processArgs( String[] args ) {
+        for( String arg : args ) {
+            LOGGER.info( "arg: {}", arg );
+            if( arg.contains( "=" ) ) {
+                String name = arg.substring( 0, arg.indexOf( "=" ) );
+                String value = arg.substring( arg.indexOf( "=" ) + 1 );
+                if( "poolsize".equalsIgnoreCase( name ) && StringUtil.isNumeric( value ) ) {
+                    this.poolSize = Math.max( 1, Integer.parseInt( value ) );
+                }
+                else if( "rows".equalsIgnoreCase( name ) && StringUtil.isNumeric( value ) ) {
+                    this.rows = Math.max( 1, Integer.parseInt( value ) );
+                }
+                else if( "rounds".equalsIgnoreCase( name ) && StringUtil.isNumeric( value ) ) {
+                    this.rounds = Math.max( 1, Integer.parseInt( value ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the warm-up pass and each concurrency level.
+     * @throws Exception exception
+     */
+    private void run() throws Exception {
+        try( IcmConnectionPool pool = new IcmConnectionPool( () -> new MainDao( MainDao.DATABASE ).getConnection(), 1, poolSize ) ) {
+            pool.start();
+            IcmDao dao = new IcmDao( MainDao.DATABASE );
+            dao.setConnectionPool( pool );
+            List<Integer> jobIds = new ArrayList<>();
+            try {
+                for( IcmJob job : dao.getIcmJobs() ) {
+                    jobIds.add( job.getId() );
+                }
+            }
+            finally {
+                dao.releaseConnection();
+            }
+            LOGGER.info( "Jobs: {}, rows: {}, rounds: {}, pool: {}", jobIds.size(), rows, rounds, pool );
+            if( jobIds.isEmpty() ) {
+                return;
+            }
+
+            measure( dao, 1, jobIds );
+            for( int level : LEVELS ) {
+                if( level > poolSize ) {
+                    break;
+                }
+                for( int r = 0; r < rounds; r++ ) {
+                    log( level, r, jobIds.size(), measure( dao, level, jobIds ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the history of each job at one concurrency.
+     * @param dao         IcmDao with a connection pool
+     * @param concurrency int
+     * @param jobIds      List
+     * @return long[] nanoseconds of each lookup, sorted, followed by the wall time
+     */
+    private long[] measure( IcmDao dao, int concurrency, List<Integer> jobIds ) {
+        long[] nanos = new long[jobIds.size() + 1];
+        long started = System.nanoTime();
+        try( IcmDaoAsync async = new IcmDaoAsync( dao, concurrency ) ) {
+            List<CompletableFuture<Long>> futures = new ArrayList<>( jobIds.size() );
+            for( int jobId : jobIds ) {
+                futures.add( async.submit( d -> {
+                    long t = System.nanoTime();
+                    d.getIcmJobHistory( jobId, rows );
+                    return System.nanoTime() - t;
+                } ) );
+            }
+            for( int i = 0; i < futures.size(); i++ ) {
+                nanos[i] = futures.get( i ).join();
+            }
+        }
+        nanos[jobIds.size()] = System.nanoTime() - started;
+        Arrays.sort( nanos, 0, jobIds.size() );
+        return nanos;
+    }
+
+    private static void log( int concurrency, int round, int lookups, long[] nanos ) {
+        long wall = TimeUnit.NANOSECONDS.toMillis( nanos[lookups] );
+        LOGGER.info( "Concurrency {} round {}: {} lookups in {} ms ({} lookups/sec), latency p50 {} ms, p95 {} ms, max {} ms",
+                     concurrency, round + 1, lookups, wall, ( lookups * 1000L / Math.max( 1, wall ) ),
+                     millis( nanos, lookups, 50 ), millis( nanos, lookups, 95 ), millis( nanos, lookups, 100 ) );
+    }
+
+    /**
+     * @param nanos   long[] sorted lookup times
+     * @param lookups int lookup times in nanos
+     * @param percent int
+     * @return long milliseconds
+     */
+    private static long millis( long[] nanos, int lookups, int percent ) {
+        int i = Math.min( lookups - 1, Math.max( 0, (int) Math.ceil( lookups * percent / 100.0 ) - 1 ) );
+        return TimeUnit.NANOSECONDS.toMillis( nanos[i] );
+    }
+}
@@ -0,0 +1,116 @@
+package com.uhc.optum.icm.webservice;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class path resource embedded in report emails, such as the logo. The raw bytes are read and
+ * Base64 encoded once, on first use, and shared by every report. The bytes are used as they
+ * are; images are not decoded, so no AWT is loaded.
+ */
+public final class IcmEmbeddedResource {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmEmbeddedResource.class );
+
+    private static final Map<String, IcmEmbeddedResource> CACHE = new ConcurrentHashMap<>();
+
+    private final String path;
+    private final String contentType;
+    private final byte[] bytes;
+    private final String base64;
+
+    private IcmEmbeddedResource( String path, String contentType, byte[] bytes ) {
+        this.path = path;
+        this.contentType = contentType;
+        this.bytes = bytes;
+        this.base64 = Base64.getEncoder().encodeToString( bytes );
+    }
+
+    /**
+     * Get a resource, reading it on first use.
+     * @param path        String class path of the resource
+     * @param contentType String e.g. image/jpeg
+     * @return IcmEmbeddedResource
+     * @throws IOException if the resource cannot be read
+     */
+    public static IcmEmbeddedResource get( String path, String contentType ) throws IOException {
+        try {
+            return CACHE.computeIfAbsent( path, p -> new IcmEmbeddedResource( p, contentType, read( p ) ) );
+        }
+        catch( UncheckedIOException e ) {
+            throw e.getCause();
+        }
+    }
+
+    private static byte[] read( String path ) {
+        try( InputStream in = IcmEmbeddedResource.class.getResourceAsStream( path ) ) {
+            if( in == null ) {
+                throw new IOException( "Resource not found: " + path );
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while( ( n = in.read( buffer ) ) != -1 ) {
+                out.write( buffer, 0, n );
+            }
+            LOGGER.info( "Embedded resource loaded: " + path + " (" + out.size() + " bytes)" );
+            return out.toByteArray();
+        }
+        catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * @return String content type
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return byte[] copy of the raw bytes, e.g. for an inline attachment
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * @return String Base64 of the raw bytes
+     */
+    public String getBase64() {
+        return base64;
+    }
+
+    /**
+     * Get the content id to use when the resource is sent as an inline attachment.
+     * @return String
+     */
+    public String getContentId() {
+        return path.substring( path.lastIndexOf( '/' ) + 1 ) + "@icm";
+    }
+
+    /**
+     * Get an img tag with the resource as a data URI.
+     * @return String
+     */
+    public String getImgTag() {
+        return "<img src=\"data:" + contentType + ";base64," + base64 + "\" />";
+    }
+
+    /**
+     * Get an img tag referencing the resource as an inline attachment with {@link #getContentId()}.
+     * @return String
+     */
+    public String getCidImgTag() {
+        return "<img src=\"cid:" + getContentId() + "\" />";
+    }
+}
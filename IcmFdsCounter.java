@@ -0,0 +1,320 @@
+package com.uhc.optum.icm.webservice;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Counts the FDS statements of a month by type. The OAuth token is kept until it expires, and
+ * each document type is added to shared counters as it is read. The whole count has a deadline;
+ * when it passes, or a page fails, the count is unknown and {@link #count} returns null.
+ * The FDS calls go through a {@link Source}. A source with several pages has them read on a
+ * bounded pool, but {@link FdsSource} has a single page, so against FDS the count is one call.
+ * {@link InMemorySource} stands in for FDS locally.
+ */
+public class IcmFdsCounter implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmFdsCounter.class );
+
+    /** Default time to keep a token (50 minutes), under the usual one hour OAuth expiry. */
+    public static final long DEFAULT_TOKEN_TTL = TimeUnit.MINUTES.toMillis( 50 );
+    /** Default deadline for a count (2 minutes). */
+    public static final long DEFAULT_DEADLINE = TimeUnit.MINUTES.toMillis( 2 );
+    /** Default number of pages fetched at once. */
+    public static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Statement store the counts are read from.
+     */
+    public interface Source {
+
+        /**
+         * Create an access token.
+         * @return String
+         */
+        String createToken();
+
+        /**
+         * Get the number of pages of statements for a month.
+         * @param token String
+         * @param year  int
+         * @param month int
+         * @return int, 1 when the source does not page
+         */
+        int getPageCount( String token, int year, int month );
+
+        /**
+         * Read one page of statements, passing the type of each to the consumer.
+         * @param token String
+         * @param year  int
+         * @param month int
+         * @param page  int from 0
+         * @param types Consumer of document types, called from the fetching thread
+         * @return boolean false if the page could not be read
+         */
+        boolean readPage( String token, int year, int month, int page, Consumer<String> types );
+    }
+
+    private final Source source;
+    private final long tokenTtl;
+    private final long deadline;
+    private final ExecutorService executor;
+    private String token;
+    private long tokenExpires;
+
+    /**
+     * @param source   Source
+     * @param threads  int pages fetched at once
+     * @param tokenTtl long milliseconds to keep a token
+     * @param deadline long milliseconds allowed for a count
+     */
+    public IcmFdsCounter( Source source, int threads, long tokenTtl, long deadline ) {
+        this.source = source;
+        this.tokenTtl = tokenTtl;
+        this.deadline = deadline;
+        this.executor = Executors.newFixedThreadPool( Math.max( 1, threads ), r -> {
+            Thread t = new Thread( r, "IcmFdsCounter" );
+            t.setDaemon( true );
+            return t;
+        } );
+    }
+
+    /**
+     * @param source Source
+     */
+    public IcmFdsCounter( Source source ) {
+        this( source, DEFAULT_THREADS, DEFAULT_TOKEN_TTL, DEFAULT_DEADLINE );
+    }
+
+    /**
+     * Count the statements of a month by type. XLSX is counted as XLS, and CSV, XLS and PDF are
+     * always present when there are statements.
+     * @param year  int
+     * @param month int
+     * @return Map of type to count, empty when there are no statements, or null when unknown
+     */
+    public Map<String, Integer> count( int year, int month ) {
+        long until = System.currentTimeMillis() + deadline;
+        String t = getToken();
+        if( t == null ) {
+            LOGGER.warn( "FDS token not created" );
+            return null;
+        }
+        int pages = source.getPageCount( t, year, month );
+        LOGGER.info( "FDS pages: {}", pages );
+
+        Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+        Consumer<String> counter = type -> counts.computeIfAbsent( normalize( type ), k -> new LongAdder() ).increment();
+        List<Future<Boolean>> futures = new ArrayList<>( pages );
+        for( int p = 0; p < pages; p++ ) {
+            int page = p;
+            futures.add( executor.submit( () -> source.readPage( t, year, month, page, counter ) ) );
+        }
+        try {
+            for( Future<Boolean> future : futures ) {
+                long left = until - System.currentTimeMillis();
+                if( left <= 0 || !Boolean.TRUE.equals( future.get( left, TimeUnit.MILLISECONDS ) ) ) {
+                    LOGGER.warn( "FDS count incomplete: {} of {} pages", futures.indexOf( future ), pages );
+                    invalidateToken();
+                    return null;
+                }
+            }
+        }
+        catch( TimeoutException e ) {
+            LOGGER.warn( "FDS count timed out after {} ms", deadline );
+            return null;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch( ExecutionException e ) {
+            LOGGER.error( "FDS count failed: ", e.getCause() );
+            invalidateToken();
+            return null;
+        }
+        finally {
+            for( Future<Boolean> future : futures ) {
+                future.cancel( true );
+            }
+        }
+
+        Map<String, Integer> types = new HashMap<>();
+        if( counts.isEmpty() ) {
+            LOGGER.warn( "Statement list is empty!" );
+            return types;
+        }
+        types.put( RunIcmStatements.CSV, 0 );
+        types.put( RunIcmStatements.XLS, 0 );
+        types.put( RunIcmStatements.PDF, 0 );
+        for( Map.Entry<String, LongAdder> e : counts.entrySet() ) {
+            types.put( e.getKey(), e.getValue().intValue() );
+        }
+        LOGGER.info( "FDS statements: {}", types );
+        return Collections.unmodifiableMap( types );
+    }
+
+    private static String normalize( String type ) {
+        return ( RunIcmStatements.XLSX.equalsIgnoreCase( type ) ? RunIcmStatements.XLS : String.valueOf( type ) );
+    }
+
+    /**
+     * Get the cached token, creating one when missing or expired.
+     * @return String or null
+     */
+    private synchronized String getToken() {
+        if( token == null || System.currentTimeMillis() >= tokenExpires ) {
+            token = source.createToken();
+            tokenExpires = System.currentTimeMillis() + tokenTtl;
+            LOGGER.debug( "FDS token created" );
+        }
+        return token;
+    }
+
+    /**
+     * Drop the cached token, e.g. after a failed page, so the next count creates a new one.
+     */
+    public synchronized void invalidateToken() {
+        token = null;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Source reading from FDS through FDSCloudManager. FDSCloudManager pages internally and
+     * returns the whole month at once, so this source has a single page.
+     */
+    public static class FdsSource implements Source {
+
+        private final FDSCloudManager fds;
+
+        /**
+         * @param fds FDSCloudManager
+         */
+        public FdsSource( FDSCloudManager fds ) {
+            this.fds = fds;
+        }
+
+        @Override
+        public String createToken() {
+            return fds.createOAuthToken();
+        }
+
+        @Override
+        public int getPageCount( String token, int year, int month ) {
+            return 1;
+        }
+
+        @Override
+        public boolean readPage( String token, int year, int month, int page, Consumer<String> types ) {
+            List<FDSDocument> statements = fds.getStatementExternalId( token, null, year, month, null );
+            if( statements == null ) {
+                LOGGER.warn( "Statement list is null!" );
+                return false;
+            }
+            LOGGER.info( "Statements: {}", statements.size() );
+            for( FDSDocument d : statements ) {
+                types.accept( d.getType() );
+            }
+            return true;
+        }
+    }
+
+    /**
+     * In memory source for running the counter without FDS. Each page is a list of document
+     * types; pages can be made slow, to run past the deadline, or made to fail.
+     */
+    public static class InMemorySource implements Source {
+
+        private final List<List<String>> pages = new ArrayList<>();
+        private final Set<Integer> failing = new HashSet<>();
+        private final AtomicInteger tokens = new AtomicInteger();
+        private volatile long delay;
+
+        /**
+         * Add a page.
+         * @param types String document types
+         * @return InMemorySource
+         */
+        public InMemorySource page( String... types ) {
+            pages.add( Arrays.asList( types ) );
+            return this;
+        }
+
+        /**
+         * Make a page fail.
+         * @param page int from 0
+         * @return InMemorySource
+         */
+        public InMemorySource fail( int page ) {
+            failing.add( page );
+            return this;
+        }
+
+        /**
+         * Wait before reading each page.
+         * @param delay long milliseconds
+         * @return InMemorySource
+         */
+        public InMemorySource delay( long delay ) {
+            this.delay = delay;
+            return this;
+        }
+
+        /**
+         * @return int tokens created so far
+         */
+        public int getTokensCreated() {
+            return tokens.get();
+        }
+
+        @Override
+        public String createToken() {
+            return "token-" + tokens.incrementAndGet();
+        }
+
+        @Override
+        public int getPageCount( String token, int year, int month ) {
+            return pages.size();
+        }
+
+        @Override
+        public boolean readPage( String token, int year, int month, int page, Consumer<String> types ) {
+            if( delay > 0 ) {
+                try {
+                    Thread.sleep( delay );
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            if( failing.contains( page ) ) {
+                return false;
+            }
+            pages.get( page ).forEach( types );
+            return true;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.uhc.optum.icm.webservice;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FDS statement counts of a payout month by type, as stored in icm_fds_statement_total.
+ * The watermark is the end date of the last statement run added to the counts.
+ */
+public class IcmFdsTotals {
+
+    private final int year;
+    private final int month;
+    private final Map<String, Integer> counts = new HashMap<>();
+    private LocalDateTime watermark;
+
+    /**
+     * @param year      int
+     * @param month     int
+     * @param counts    Map of type to count
+     * @param watermark LocalDateTime
+     */
+    public IcmFdsTotals( int year, int month, Map<String, Integer> counts, LocalDateTime watermark ) {
+        this.year = year;
+        this.month = month;
+        this.counts.putAll( counts );
+        this.watermark = watermark;
+    }
+
+    /**
+     * Add statement run counts and move the watermark forward.
+     * @param delta Map of type to count
+     * @param until LocalDateTime end date of the last run added
+     */
+    public void add( Map<String, Integer> delta, LocalDateTime until ) {
+        for( Map.Entry<String, Integer> e : delta.entrySet() ) {
+            counts.merge( e.getKey(), e.getValue(), Integer::sum );
+        }
+        if( until != null && ( watermark == null || until.isAfter( watermark ) ) ) {
+            watermark = until;
+        }
+    }
+
+    /**
+     * @return int
+     */
+    public int getYear() {
+        return year;
+    }
+
+    /**
+     * @return int
+     */
+    public int getMonth() {
+        return month;
+    }
+
+    /**
+     * @return Map of type to count
+     */
+    public Map<String, Integer> getCounts() {
+        return Collections.unmodifiableMap( counts );
+    }
+
+    /**
+     * @return LocalDateTime
+     */
+    public LocalDateTime getWatermark() {
+        return watermark;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + year + "/" + month + "] " + counts + " to " + watermark;
+    }
+}
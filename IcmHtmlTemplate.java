@@ -0,0 +1,119 @@
+package com.uhc.optum.icm.webservice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HTML fragment with numbered placeholders ({0}, {1}, ...), split into static text once when
+ * compiled so rendering only appends. Unlike MessageFormat there is no quoting and values are
+ * written as given; escape untrusted text with {@link #escape}.
+ */
+public final class IcmHtmlTemplate {
+
+    private final String pattern;
+    private final String[] fragments;
+    private final int[] args;
+
+    private IcmHtmlTemplate( String pattern, String[] fragments, int[] args ) {
+        this.pattern = pattern;
+        this.fragments = fragments;
+        this.args = args;
+    }
+
+    /**
+     * Compile a pattern.
+     * @param pattern String
+     * @return IcmHtmlTemplate
+     */
+    public static IcmHtmlTemplate compile( String pattern ) {
+        List<String> fragments = new ArrayList<>();
+        List<Integer> args = new ArrayList<>();
+        int from = 0;
+        int i = pattern.indexOf( '{' );
+        while( i >= 0 ) {
+            int close = pattern.indexOf( '}', i );
+            if( close > i + 1 && isDigits( pattern, i + 1, close ) ) {
+                fragments.add( pattern.substring( from, i ) );
+                args.add( Integer.parseInt( pattern.substring( i + 1, close ) ) );
+                from = close + 1;
+            }
+            i = pattern.indexOf( '{', Math.max( i + 1, from ) );
+        }
+        fragments.add( pattern.substring( from ) );
+        int[] a = new int[args.size()];
+        for( int j = 0; j < a.length; j++ ) {
+            a[j] = args.get( j );
+        }
+        return new IcmHtmlTemplate( pattern, fragments.toArray( new String[0] ), a );
+    }
+
+    private static boolean isDigits( String s, int from, int to ) {
+        for( int i = from; i < to; i++ ) {
+            if( !Character.isDigit( s.charAt( i ) ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the template with the values in place of the placeholders. Missing values are empty.
+     * @param out    Appendable
+     * @param values CharSequence values by placeholder number
+     * @throws IOException exception
+     */
+    public void render( Appendable out, CharSequence... values ) throws IOException {
+        for( int i = 0; i < args.length; i++ ) {
+            out.append( fragments[i] );
+            int a = args[i];
+            if( a < values.length && values[a] != null ) {
+                out.append( values[a] );
+            }
+        }
+        out.append( fragments[args.length] );
+    }
+
+    /**
+     * Write text with HTML special characters escaped.
+     * @param out   Appendable
+     * @param value CharSequence, null writes nothing
+     * @throws IOException exception
+     */
+    public static void escape( Appendable out, CharSequence value ) throws IOException {
+        if( value == null ) {
+            return;
+        }
+        int start = 0;
+        for( int i = 0; i < value.length(); i++ ) {
+            String entity;
+            switch( value.charAt( i ) ) {
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '"':
+                    entity = "&quot;";
+                    break;
+                case '\'':
+                    entity = "&#39;";
+                    break;
+                default:
+                    continue;
+            }
+            out.append( value, start, i ).append( entity );
+            start = i + 1;
+        }
+        out.append( value, start, value.length() );
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,143 @@
+package com.uhc.optum.icm.webservice;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In memory copy of the icm_job table.
+ * The catalog is loaded in full on first use, reloaded once the time to live has passed and
+ * dropped whenever a job is updated.
+ */
+public class IcmJobCatalog {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmJobCatalog.class );
+
+    /** Default time to live (10 minutes). */
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis( 10 );
+
+    private final Supplier<List<IcmJob>> loader;
+    private volatile long ttl = DEFAULT_TTL;
+    private volatile Jobs jobs;
+    // Bumped by invalidate, so a load that overlaps an update is not kept.
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param loader Supplier that reads every job from the database
+     */
+    public IcmJobCatalog( Supplier<List<IcmJob>> loader ) {
+        this.loader = loader;
+    }
+
+    /**
+     * Set time to live in milliseconds. Zero or less disables caching.
+     * @param ttl long
+     */
+    public void setTtl( long ttl ) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return long
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Get job by id.
+     * @param jobId int
+     * @return IcmJob copy, or null when not in the catalog
+     */
+    public IcmJob get( int jobId ) {
+        Jobs j = current();
+        return ( j != null ? copy( j.byId.get( jobId ) ) : null );
+    }
+
+    /**
+     * Get job by lower case name.
+     * @param name String
+     * @return IcmJob copy, or null when not in the catalog
+     */
+    public IcmJob getByName( String name ) {
+        Jobs j = current();
+        return ( j != null ? copy( j.byName.get( name ) ) : null );
+    }
+
+    /**
+     * Copy a job so callers cannot change the cached one.
+     * @param job IcmJob or null
+     * @return IcmJob or null
+     */
+    private static IcmJob copy( IcmJob job ) {
+        if( job == null ) {
+            return null;
+        }
+        return new IcmJob( job.getId(), job.getName(), job.getDesc(), job.getWaitSeconds(), job.getWarnMinutes(),
+                           job.getMaxMinutes(), job.getLastRun(), job.isActive() );
+    }
+
+    /**
+     * Drop the catalog so the next lookup reloads it.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        jobs = null;
+    }
+
+    /**
+     * Get the loaded jobs, reloading them when missing or expired.
+     * @return Jobs or null when caching is disabled
+     */
+    private Jobs current() {
+        if( ttl <= 0 ) {
+            return null;
+        }
+        Jobs j = jobs;
+        if( j == null || System.currentTimeMillis() - j.loaded > ttl ) {
+            synchronized( this ) {
+                j = jobs;
+                if( j == null || System.currentTimeMillis() - j.loaded > ttl ) {
+                    long g = generation.get();
+                    j = new Jobs( loader.get() );
+                    // Invalidated while loading: use the result for this lookup only.
+                    if( generation.get() == g ) {
+                        jobs = j;
+                    }
+                    LOGGER.debug( "Loaded job catalog: " + j.byId.size() );
+                }
+            }
+        }
+        return j;
+    }
+
+    /**
+     * Immutable set of jobs loaded together.
+     */
+    private static final class Jobs {
+        private final long loaded = System.currentTimeMillis();
+        private final Map<Integer, IcmJob> byId;
+        private final Map<String, IcmJob> byName;
+
+        private Jobs( List<IcmJob> list ) {
+            Map<Integer, IcmJob> ids = new HashMap<>();
+            Map<String, IcmJob> names = new HashMap<>();
+            for( IcmJob job : list ) {
+                ids.put( job.getId(), job );
+                if( job.getName() != null ) {
+                    // Matches the lower(job_name) = ? lookup in IcmDao.
+                    names.putIfAbsent( job.getName().toLowerCase(), job );
+                }
+            }
+            this.byId = Collections.unmodifiableMap( ids );
+            this.byName = Collections.unmodifiableMap( names );
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.uhc.optum.icm.webservice;
+
+import java.time.LocalDateTime;
+
+/**
+ * Status of one scheduled job slot in a report window.
+ * A slot with several completed runs in the window has one status per run.
+ */
+public final class IcmJobSlotStatus {
+
+    /**
+     * State of a scheduled job slot.
+     */
+    public enum State {
+        COMPLETED,
+        IN_PROGRESS,
+        NOT_RUN
+    }
+
+    private final IcmJob job;
+    private final IcmScheduleSlot slot;
+    private final State state;
+    private final int historyId;
+    private final LocalDateTime start;
+    private final LocalDateTime end;
+    private final String currentTask;
+    private final boolean success;
+
+    public IcmJobSlotStatus( IcmJob job, IcmScheduleSlot slot, State state, int historyId, LocalDateTime start, LocalDateTime end,
+                             String currentTask, boolean success ) {
+        this.job = job;
+        this.slot = slot;
+        this.state = state;
+        this.historyId = historyId;
+        this.start = start;
+        this.end = end;
+        this.currentTask = currentTask;
+        this.success = success;
+    }
+
+    /**
+     * Status for a completed run.
+     * @param job         IcmJob
+     * @param slot        IcmScheduleSlot
+     * @param h           IcmJobHistory
+     * @return IcmJobSlotStatus
+     */
+    public static IcmJobSlotStatus completed( IcmJob job, IcmScheduleSlot slot, IcmJobHistory h ) {
+        return new IcmJobSlotStatus( job, slot, State.COMPLETED, h.getId(), h.getStart(), h.getEnd(), null, h.isSuccess() );
+    }
+
+    /**
+     * Status for a running job.
+     * @param job         IcmJob
+     * @param slot        IcmScheduleSlot
+     * @param h           IcmJobHistory
+     * @param currentTask String
+     * @return IcmJobSlotStatus
+     */
+    public static IcmJobSlotStatus inProgress( IcmJob job, IcmScheduleSlot slot, IcmJobHistory h, String currentTask ) {
+        return new IcmJobSlotStatus( job, slot, State.IN_PROGRESS, h.getId(), h.getStart(), null, currentTask, false );
+    }
+
+    /**
+     * Status for a job that has not run yet.
+     * @param job         IcmJob
+     * @param slot        IcmScheduleSlot
+     * @return IcmJobSlotStatus
+     */
+    public static IcmJobSlotStatus notRun( IcmJob job, IcmScheduleSlot slot ) {
+        return new IcmJobSlotStatus( job, slot, State.NOT_RUN, 0, null, null, null, false );
+    }
+
+    public IcmJob getJob() {
+        return job;
+    }
+
+    public IcmScheduleSlot getSlot() {
+        return slot;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return int job history id of the run, 0 if the job has not run
+     */
+    public int getHistoryId() {
+        return historyId;
+    }
+
+    public LocalDateTime getStart() {
+        return start;
+    }
+
+    public LocalDateTime getEnd() {
+        return end;
+    }
+
+    public String getCurrentTask() {
+        return currentTask;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + ( job != null ? job.getName() : null ) + "][" + slot + "][" + state + "][" + start + "][" + end + "]["
+                + currentTask + "][" + success + "]";
+    }
+}
@@ -0,0 +1,227 @@
+package com.uhc.optum.icm.webservice;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Works out whether each scheduled job in a report window has completed, is in progress or
+ * has not run, producing an {@link IcmJobStatusSnapshot}. The latest snapshot is kept so
+ * several consumers can share it without going back to the database, and can be refreshed
+ * from the job history changed since, tracked by high-water marks on the history ids.
+ */
+public class IcmJobStatusEngine {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmJobStatusEngine.class );
+
+    private final IcmDao dao;
+    private final Predicate<IcmJob> scheduled;
+    private volatile IcmJobStatusSnapshot latest;
+
+    // State kept between compute and refresh, guarded by this.
+    private IcmBatchJobsStatus batchStatus;
+    private IcmJobStreamWindows streams;
+    private LocalDateTime start;
+    private int historyMark;
+    private int taskHistoryMark;
+    private final Map<IcmScheduleSlot, List<IcmJobSlotStatus>> bySlot = new LinkedHashMap<>();
+    private final Map<Integer, String> taskNames = new HashMap<>();
+
+    /**
+     * @param dao       IcmDao
+     * @param scheduled Predicate deciding if a scheduled job is expected to run today
+     */
+    public IcmJobStatusEngine( IcmDao dao, Predicate<IcmJob> scheduled ) {
+        this.dao = dao;
+        this.scheduled = scheduled;
+    }
+
+    /**
+     * Compute the status of the window and keep it as the latest snapshot. The loaded history
+     * is kept so {@link #refresh} can bring the snapshot up to date.
+     * @param start LocalDateTime
+     * @param end   LocalDateTime
+     * @return IcmJobStatusSnapshot
+     */
+    public synchronized IcmJobStatusSnapshot compute( LocalDateTime start, LocalDateTime end ) {
+        // Take the high-water marks first; rows added during the load are applied again on refresh.
+        historyMark = dao.getMaxIcmJobHistoryId();
+        taskHistoryMark = dao.getMaxIcmJobTaskHistoryId();
+
+        // Load the schedule, jobs and history once and resolve each slot in memory.
+        batchStatus = dao.getIcmBatchJobsStatus( start, end );
+        streams = null;
+        taskNames.clear();
+        bySlot.clear();
+        this.start = start;
+        loadTaskNames();
+        for( IcmScheduleSlot scheduleSlot : batchStatus.getSlots() ) {
+            bySlot.put( scheduleSlot, resolve( scheduleSlot, end ) );
+        }
+        return publish( end );
+    }
+
+    /**
+     * Bring the latest snapshot up to the given end using only job history added or changed
+     * since the last compute or refresh. Only the slots of jobs with changes are resolved again.
+     * @param end LocalDateTime
+     * @return IcmJobStatusSnapshot
+     * @throws IllegalStateException if compute has not run
+     */
+    public synchronized IcmJobStatusSnapshot refresh( LocalDateTime end ) {
+        if( batchStatus == null ) {
+            throw new IllegalStateException( "compute must run before refresh" );
+        }
+        int newHistoryMark = dao.getMaxIcmJobHistoryId();
+        int newTaskHistoryMark = dao.getMaxIcmJobTaskHistoryId();
+        List<IcmJobHistory> changes = dao.getIcmJobHistoryChanges( historyMark, batchStatus.getOpenIds() );
+        Set<Integer> taskChanges = ( newTaskHistoryMark > taskHistoryMark ? dao.getIcmJobTaskHistoryChanges( taskHistoryMark ) : new HashSet<>() );
+        historyMark = Math.max( historyMark, newHistoryMark );
+        taskHistoryMark = Math.max( taskHistoryMark, newTaskHistoryMark );
+
+        Set<Integer> changedJobs = batchStatus.update( changes, start );
+        for( IcmJobHistory h : changes ) {
+            taskNames.remove( h.getId() );
+        }
+        taskNames.keySet().removeAll( taskChanges );
+        if( streams != null ) {
+            streams.update( changes, end );
+        }
+        loadTaskNames();
+
+        int resolved = 0;
+        for( Map.Entry<IcmScheduleSlot, List<IcmJobSlotStatus>> e : bySlot.entrySet() ) {
+            IcmScheduleSlot scheduleSlot = e.getKey();
+            if( changedJobs.contains( scheduleSlot.getJobId() )
+                    || ( streams != null && !changes.isEmpty() && isByStream( scheduleSlot ) )
+                    || hasTaskChanges( e.getValue(), taskChanges ) ) {
+                e.setValue( resolve( scheduleSlot, end ) );
+                resolved++;
+            }
+        }
+        LOGGER.info( "Refreshed job status: [history changes:" + changes.size() + "][task changes:" + taskChanges.size()
+                     + "][slots resolved:" + resolved + "/" + bySlot.size() + "]" );
+        return publish( end );
+    }
+
+    /**
+     * @return IcmJobStatusSnapshot last computed snapshot or null
+     */
+    public IcmJobStatusSnapshot getLatest() {
+        return latest;
+    }
+
+    /**
+     * Resolve the status of one schedule slot.
+     * @param scheduleSlot IcmScheduleSlot
+     * @param end          LocalDateTime
+     * @return List of statuses, empty if the job is not expected to run today
+     */
+    private List<IcmJobSlotStatus> resolve( IcmScheduleSlot scheduleSlot, LocalDateTime end ) {
+        List<IcmJobSlotStatus> slots = new ArrayList<>();
+        int icmJobId = scheduleSlot.getJobId();
+        IcmJob job = batchStatus.getJob( icmJobId );
+
+        // Skip jobs with irregular schedules that are not due today.
+        if( !scheduled.test( job ) ) {
+            return slots;
+        }
+
+        // A job scheduled more than once is matched to its slot by job stream.
+        boolean byStream = isByStream( scheduleSlot );
+        if( byStream && streams == null ) {
+            streams = dao.getJobStreamWindows( start, end );
+        }
+
+        List<IcmJobHistory> jobCompleted = ( byStream ? streams.getCompleted( scheduleSlot, batchStatus.getSchedule().getOccurrences( icmJobId ) ) : batchStatus.getCompleted( icmJobId ) );
+        if( !jobCompleted.isEmpty() ) {
+            LOGGER.info( "ICM job Completed with ICM job id : {}", icmJobId );
+            for( IcmJobHistory h : jobCompleted ) {
+                slots.add( IcmJobSlotStatus.completed( job, scheduleSlot, h ) );
+            }
+            return slots;
+        }
+        IcmJobHistory jobInProgress = ( byStream ? streams.getInProgress( scheduleSlot ) : batchStatus.getInProgress( icmJobId ) );
+        if( jobInProgress != null ) {
+            LOGGER.info( "InProgress job in ICM with ICM job id : {}", icmJobId );
+            if( jobInProgress.getStart().isBefore( start ) ) {
+                LOGGER.warn( "Found in process job that started before start of window: {}", icmJobId );
+            }
+            String task = taskNames.computeIfAbsent( jobInProgress.getId(),
+                                                     id -> getTaskName( id, dao.getCurrentIcmJobTasks( Collections.singleton( id ) ).get( id ) ) );
+            slots.add( IcmJobSlotStatus.inProgress( job, scheduleSlot, jobInProgress, task ) );
+            return slots;
+        }
+        LOGGER.info( "Jobs that are not yet executed  : {}", job.getName() );
+        slots.add( IcmJobSlotStatus.notRun( job, scheduleSlot ) );
+        return slots;
+    }
+
+    private boolean isByStream( IcmScheduleSlot scheduleSlot ) {
+        return ( scheduleSlot.getJobStream() != null && batchStatus.getSchedule().getOccurrences( scheduleSlot.getJobId() ) > 1 );
+    }
+
+    private static boolean hasTaskChanges( List<IcmJobSlotStatus> slots, Set<Integer> taskChanges ) {
+        for( IcmJobSlotStatus slot : slots ) {
+            if( slot.getState() == IcmJobSlotStatus.State.IN_PROGRESS && taskChanges.contains( slot.getHistoryId() ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private IcmJobStatusSnapshot publish( LocalDateTime end ) {
+        List<IcmJobSlotStatus> slots = new ArrayList<>();
+        for( List<IcmJobSlotStatus> statuses : bySlot.values() ) {
+            slots.addAll( statuses );
+        }
+        IcmJobStatusSnapshot snapshot = new IcmJobStatusSnapshot( start, end, slots );
+        latest = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Load the task names of the open runs that do not have one yet, in one query.
+     */
+    private void loadTaskNames() {
+        Set<Integer> ids = batchStatus.getOpenIds();
+        ids.removeAll( taskNames.keySet() );
+        if( ids.isEmpty() ) {
+            return;
+        }
+        Map<Integer, IcmJobTask> tasks = dao.getCurrentIcmJobTasks( ids );
+        for( int id : ids ) {
+            taskNames.put( id, getTaskName( id, tasks.get( id ) ) );
+        }
+    }
+
+    /**
+     * Get active task name for job history.
+     * @param icmJobHistoryId int
+     * @param task            IcmJobTask current task or null
+     * @return String
+     */
+    private static String getTaskName( int icmJobHistoryId, IcmJobTask task ) {
+        if( task == null || task.getTaskId() == 0 ) {
+            LOGGER.debug( "getTaskName: no active tasks found for: " + icmJobHistoryId );
+            return "In Progress";
+        }
+        if( task.getTaskName() == null ) {
+            LOGGER.warn( "getTaskName: task not found for: " + task.getIcmJobId() + "/" + task.getTaskId() );
+            return "Not Found";
+        }
+        String name = task.getTaskName() + "/" + task.getTaskId();
+        LOGGER.debug( "getTaskName: {}", name );
+        return name;
+    }
+}
@@ -0,0 +1,67 @@
+package com.uhc.optum.icm.webservice;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable status of every scheduled job in a report window, in schedule order.
+ */
+public final class IcmJobStatusSnapshot {
+
+    private final LocalDateTime start;
+    private final LocalDateTime end;
+    private final LocalDateTime created;
+    private final List<IcmJobSlotStatus> slots;
+
+    public IcmJobStatusSnapshot( LocalDateTime start, LocalDateTime end, List<IcmJobSlotStatus> slots ) {
+        this.start = start;
+        this.end = end;
+        this.created = LocalDateTime.now();
+        this.slots = Collections.unmodifiableList( new ArrayList<>( slots ) );
+    }
+
+    /**
+     * @return LocalDateTime start of the report window
+     */
+    public LocalDateTime getStart() {
+        return start;
+    }
+
+    /**
+     * @return LocalDateTime end of the report window
+     */
+    public LocalDateTime getEnd() {
+        return end;
+    }
+
+    /**
+     * @return LocalDateTime when the snapshot was computed
+     */
+    public LocalDateTime getCreated() {
+        return created;
+    }
+
+    /**
+     * @return List
+     */
+    public List<IcmJobSlotStatus> getSlots() {
+        return slots;
+    }
+
+    /**
+     * Count slots in a state.
+     * @param state State
+     * @return int
+     */
+    public int count( IcmJobSlotStatus.State state ) {
+        int i = 0;
+        for( IcmJobSlotStatus slot : slots ) {
+            if( slot.getState() == state ) {
+                i++;
+            }
+        }
+        return i;
+    }
+}
@@ -0,0 +1,231 @@
+package com.uhc.optum.icm.webservice;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Job stream run windows for jobs scheduled more than once, worked out in memory from the
+ * batch schedule and the job history of a report window. Gives the same results as the
+ * job stream queries in {@link IcmDao} (getJobStreamStartAndEndTime,
+ * getJobStreamScheduleStartAndEndTime, getJobStreamStarttTime) without a query per slot.
+ */
+public class IcmJobStreamWindows {
+
+    /** Schedule times at or after this (HHmm) belong to the evening the window starts. */
+    private static final int DAY_ROLLOVER = 1700;
+
+    private final IcmScheduleIndex schedule;
+    private final LocalDateTime start;
+    private LocalDateTime end;
+    private final Map<Integer, List<IcmJobHistory>> historyByJob = new HashMap<>();
+
+    /**
+     * @param schedule IcmScheduleIndex over the whole batch schedule
+     * @param history  List of job history started on or after the first day of the window
+     * @param start    LocalDateTime window start
+     * @param end      LocalDateTime window end
+     */
+    public IcmJobStreamWindows( IcmScheduleIndex schedule, List<IcmJobHistory> history, LocalDateTime start, LocalDateTime end ) {
+        this.schedule = schedule;
+        this.start = start;
+        this.end = end;
+        for( IcmJobHistory h : history ) {
+            if( h.getStart() != null ) {
+                historyByJob.computeIfAbsent( h.getJobId(), k -> new ArrayList<>() ).add( h );
+            }
+        }
+        for( List<IcmJobHistory> list : historyByJob.values() ) {
+            list.sort( Comparator.comparing( IcmJobHistory::getStart ) );
+        }
+    }
+
+    /**
+     * Move the window end and apply new and changed job history, replacing earlier versions
+     * of the same runs.
+     * @param changes List of job history
+     * @param end     LocalDateTime new window end
+     */
+    public void update( List<IcmJobHistory> changes, LocalDateTime end ) {
+        this.end = end;
+        Set<Integer> changed = new HashSet<>();
+        for( IcmJobHistory h : changes ) {
+            if( h.getStart() == null ) {
+                continue;
+            }
+            List<IcmJobHistory> list = historyByJob.computeIfAbsent( h.getJobId(), k -> new ArrayList<>() );
+            list.removeIf( r -> r.getId() == h.getId() );
+            list.add( h );
+            changed.add( h.getJobId() );
+        }
+        for( int jobId : changed ) {
+            historyByJob.get( jobId ).sort( Comparator.comparing( IcmJobHistory::getStart ) );
+        }
+    }
+
+    /**
+     * Get the first day of the window, which is the earliest history the windows need.
+     * @param start LocalDateTime window start
+     * @return LocalDateTime
+     */
+    public static LocalDateTime getHistoryStart( LocalDateTime start ) {
+        return start.toLocalDate().atStartOfDay();
+    }
+
+    /**
+     * Get completed history for a slot. For a job scheduled more than once that belongs to a
+     * stream, only runs inside the stream's run window are returned.
+     * @param slot        IcmScheduleSlot
+     * @param occurrences int number of times the job is scheduled
+     * @return List ordered by start date
+     */
+    public List<IcmJobHistory> getCompleted( IcmScheduleSlot slot, int occurrences ) {
+        LocalDateTime from = start;
+        LocalDateTime to = end;
+        String jobStream = slot.getJobStream();
+        if( occurrences > 1 && jobStream != null ) {
+            LocalDateTime[] window = getStartAndEndTime( jobStream, slot.getJobId(), slot.getDay() );
+            from = window[0];
+            to = window[1];
+        }
+        List<IcmJobHistory> completed = new ArrayList<>();
+        for( IcmJobHistory h : historyByJob.getOrDefault( slot.getJobId(), new ArrayList<>() ) ) {
+            if( h.getEnd() != null && !h.getStart().isBefore( from ) && !h.getEnd().isAfter( to ) ) {
+                completed.add( h );
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Get the latest open run of a slot's job that started after its job stream started.
+     * @param slot IcmScheduleSlot
+     * @return IcmJobHistory or null
+     */
+    public IcmJobHistory getInProgress( IcmScheduleSlot slot ) {
+        String jobStream = slot.getJobStream();
+        if( jobStream == null ) {
+            return null;
+        }
+        LocalDateTime streamStart = getStreamStartTime( jobStream, slot.getDay(), slot.getJobId() );
+        IcmJobHistory found = null;
+        for( IcmJobHistory h : historyByJob.getOrDefault( slot.getJobId(), new ArrayList<>() ) ) {
+            if( h.getEnd() == null && h.getStart().isAfter( streamStart ) ) {
+                found = h;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Start and end of the stream's run, from the other stream jobs' history on the day.
+     * Same as IcmDao.getJobStreamStartAndEndTime.
+     * @param jobStream String
+     * @param icmJobId  int
+     * @param day       String
+     * @return LocalDateTime[] start and end
+     */
+    public LocalDateTime[] getStartAndEndTime( String jobStream, int icmJobId, String day ) {
+        LocalDateTime startTime = null;
+        LocalDateTime endTime = null;
+        LocalDateTime maxStartTime = null;
+        for( int jobId : getOtherStreamJobs( jobStream, day, icmJobId ) ) {
+            for( IcmJobHistory h : historyByJob.getOrDefault( jobId, new ArrayList<>() ) ) {
+                if( h.getStart().isBefore( start ) || ( h.getEnd() != null && h.getEnd().isAfter( end ) ) ) {
+                    continue;
+                }
+                startTime = ( startTime == null || h.getStart().isBefore( startTime ) ? h.getStart() : startTime );
+                maxStartTime = ( maxStartTime == null || h.getStart().isAfter( maxStartTime ) ? h.getStart() : maxStartTime );
+                if( h.getEnd() != null ) {
+                    endTime = ( endTime == null || h.getEnd().isAfter( endTime ) ? h.getEnd() : endTime );
+                }
+            }
+        }
+        // No history defaults to a year ago.
+        LocalDateTime yearAgo = LocalDateTime.now().minusYears( 1 );
+        startTime = ( startTime != null ? startTime : yearAgo );
+        endTime = ( endTime != null ? endTime : yearAgo );
+        maxStartTime = ( maxStartTime != null ? maxStartTime : yearAgo );
+        if( maxStartTime.isAfter( endTime ) ) {
+            endTime = maxStartTime;
+        }
+
+        LocalDateTime[] window = new LocalDateTime[]{ startTime, endTime };
+
+        if( startTime.isBefore( start ) || endTime.isBefore( start ) ) {
+            window = getScheduleStartAndEndTime( jobStream );
+        }
+        return window;
+    }
+
+    /**
+     * Start and end of the stream from its first and last schedule times. Times from 17:00 are
+     * on the window's first day, earlier times on its last day.
+     * Same as IcmDao.getJobStreamScheduleStartAndEndTime.
+     * @param jobStream String
+     * @return LocalDateTime[] start and end
+     */
+    public LocalDateTime[] getScheduleStartAndEndTime( String jobStream ) {
+        int min = 0;
+        int max = 0;
+        boolean first = true;
+        for( IcmScheduleSlot slot : schedule.getByStream( jobStream ) ) {
+            min = ( first || slot.getTime() < min ? slot.getTime() : min );
+            max = ( first || slot.getTime() > max ? slot.getTime() : max );
+            first = false;
+        }
+        return new LocalDateTime[]{ atScheduleTime( min ), atScheduleTime( max ) };
+    }
+
+    /**
+     * Earliest run since the window start of the other jobs in the stream on the day, or now.
+     * Same as IcmDao.getJobStreamStarttTime.
+     * @param jobStream String
+     * @param day       String
+     * @param icmJobId  int
+     * @return LocalDateTime
+     */
+    public LocalDateTime getStreamStartTime( String jobStream, String day, int icmJobId ) {
+        LocalDateTime streamStart = null;
+        for( int jobId : getOtherStreamJobs( jobStream, day, icmJobId ) ) {
+            for( IcmJobHistory h : historyByJob.getOrDefault( jobId, new ArrayList<>() ) ) {
+                if( !h.getStart().isBefore( start ) && ( streamStart == null || h.getStart().isBefore( streamStart ) ) ) {
+                    streamStart = h.getStart();
+                }
+            }
+        }
+        return ( streamStart != null ? streamStart : LocalDateTime.now() );
+    }
+
+    /**
+     * Jobs scheduled in the stream on the day, other than the given job.
+     * @param jobStream String
+     * @param day       String
+     * @param icmJobId  int
+     * @return Set
+     */
+    private Set<Integer> getOtherStreamJobs( String jobStream, String day, int icmJobId ) {
+        Set<Integer> jobs = new HashSet<>();
+        for( IcmScheduleSlot slot : schedule.getByStream( jobStream ) ) {
+            if( slot.getJobId() != icmJobId && slot.getDay().equals( day ) ) {
+                jobs.add( slot.getJobId() );
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Place a schedule time (HHmm) on the first or last day of the window.
+     * @param time int
+     * @return LocalDateTime
+     */
+    private LocalDateTime atScheduleTime( int time ) {
+        LocalDateTime day = ( time >= DAY_ROLLOVER ? start : end );
+        return IcmTimeFormat.atScheduleTime( day.toLocalDate(), time );
+    }
+}
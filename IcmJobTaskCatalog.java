@@ -0,0 +1,217 @@
+package com.uhc.optum.icm.webservice;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In memory copy of the icm_job_task table, keyed by (job id, task id).
+ * The table is loaded in full on first use, so a task missing from it is a cached miss as well:
+ * neither hits nor misses query the database until the time to live has passed or a task is
+ * updated or inserted.
+ */
+public class IcmJobTaskCatalog {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmJobTaskCatalog.class );
+
+    private final Supplier<List<IcmJobTask>> loader;
+    private volatile long ttl = IcmJobCatalog.DEFAULT_TTL;
+    private volatile Tasks tasks;
+    // Bumped by invalidate, so a load that overlaps an update is not kept.
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param loader Supplier that reads every task from the database
+     */
+    public IcmJobTaskCatalog( Supplier<List<IcmJobTask>> loader ) {
+        this.loader = loader;
+    }
+
+    /**
+     * Set time to live in milliseconds. Zero or less disables caching.
+     * @param ttl long
+     */
+    public void setTtl( long ttl ) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return long
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return boolean true if lookups are answered from the catalog
+     */
+    public boolean isEnabled() {
+        return ttl > 0;
+    }
+
+    /**
+     * Get task by job id and task id.
+     * Only meaningful when {@link #isEnabled()}; otherwise every lookup is a miss.
+     * @param icmJobId int
+     * @param taskId   int
+     * @return IcmJobTask copy, or null when the job has no such task
+     */
+    public IcmJobTask get( int icmJobId, int taskId ) {
+        Tasks t = current();
+        return ( t != null ? copy( t.byKey.get( key( icmJobId, taskId ) ) ) : null );
+    }
+
+    /**
+     * Get the tasks of a job ordered by task id.
+     * @param icmJobId int
+     * @return List of copies, empty when the job has no tasks, or null when caching is disabled
+     */
+    public List<IcmJobTask> getTasks( int icmJobId ) {
+        Tasks t = current();
+        if( t == null ) {
+            return null;
+        }
+        List<IcmJobTask> copies = new ArrayList<>();
+        for( IcmJobTask task : t.byJob.getOrDefault( icmJobId, Collections.emptyList() ) ) {
+            copies.add( copy( task ) );
+        }
+        return copies;
+    }
+
+    /**
+     * Copy a task so callers cannot change the cached one.
+     * @param task IcmJobTask or null
+     * @return IcmJobTask or null
+     */
+    private static IcmJobTask copy( IcmJobTask task ) {
+        if( task == null ) {
+            return null;
+        }
+        IcmJobTask t = new IcmJobTask();
+        t.setIcmJobId( task.getIcmJobId() );
+        t.setTaskId( task.getTaskId() );
+        t.setTaskName( task.getTaskName() );
+        t.setExpectedMinutes( task.getExpectedMinutes() );
+        return t;
+    }
+
+    /**
+     * Drop the catalog so the next lookup reloads it.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        tasks = null;
+    }
+
+    private static long key( int icmJobId, int taskId ) {
+        return ( (long) icmJobId << 32 ) | ( taskId & 0xffffffffL );
+    }
+
+    /**
+     * Get the loaded tasks, reloading them when missing or expired.
+     * @return Tasks or null when caching is disabled
+     */
+    private Tasks current() {
+        if( ttl <= 0 ) {
+            return null;
+        }
+        Tasks t = tasks;
+        if( t == null || System.currentTimeMillis() - t.loaded > ttl ) {
+            synchronized( this ) {
+                t = tasks;
+                if( t == null || System.currentTimeMillis() - t.loaded > ttl ) {
+                    long g = generation.get();
+                    t = new Tasks( loader.get() );
+                    // Invalidated while loading: use the result for this lookup only.
+                    if( generation.get() == g ) {
+                        tasks = t;
+                    }
+                    LOGGER.debug( "Loaded job task catalog: " + t.byKey.size() );
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Immutable set of tasks loaded together.
+     */
+    private static final class Tasks {
+        private final long loaded = System.currentTimeMillis();
+        private final LongMap<IcmJobTask> byKey;
+        private final Map<Integer, List<IcmJobTask>> byJob;
+
+        private Tasks( List<IcmJobTask> list ) {
+            byKey = new LongMap<>( list.size() );
+            Map<Integer, List<IcmJobTask>> jobs = new HashMap<>();
+            for( IcmJobTask task : list ) {
+                // The loader returns tasks ordered by task id; the first of a duplicate wins as with SQL_GET_JOB_TASK.
+                byKey.putIfAbsent( key( task.getIcmJobId(), task.getTaskId() ), task );
+                jobs.computeIfAbsent( task.getIcmJobId(), id -> new ArrayList<>() ).add( task );
+            }
+            for( Map.Entry<Integer, List<IcmJobTask>> e : jobs.entrySet() ) {
+                e.setValue( Collections.unmodifiableList( e.getValue() ) );
+            }
+            byJob = jobs;
+        }
+    }
+
+    /**
+     * Fixed size open addressing map from long to value, with linear probing.
+     * Written once while loading and only read afterwards; the keys are never boxed.
+     */
+    private static final class LongMap<V> {
+        private final long[] keys;
+        private final Object[] values;
+        private final int mask;
+        private int size;
+
+        private LongMap( int expected ) {
+            int capacity = Integer.highestOneBit( Math.max( 4, expected * 2 ) - 1 ) << 1;
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        private int slot( long key ) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) ( h ^ ( h >>> 32 ) ) & mask;
+        }
+
+        private void putIfAbsent( long key, V value ) {
+            int i = slot( key );
+            while( values[i] != null ) {
+                if( keys[i] == key ) {
+                    return;
+                }
+                i = ( i + 1 ) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        @SuppressWarnings( "unchecked" )
+        private V get( long key ) {
+            int i = slot( key );
+            while( values[i] != null ) {
+                if( keys[i] == key ) {
+                    return (V) values[i];
+                }
+                i = ( i + 1 ) & mask;
+            }
+            return null;
+        }
+
+        private int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.uhc.optum.icm.webservice;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Writes the rows of the job status report straight into an {@link Appendable} from
+ * pre-rendered fragments. Row names are HTML escaped; status text is HTML and written as given.
+ */
+public final class IcmReportRenderer {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmReportRenderer.class );
+
+    // Name | StartDate | EndDate/In Progress | Time | Complete/Error/TaskName
+    private static final String ROW_START = "<tr valign=\"top\"><td>";
+    private static final String START_CELL = "</td><td align=\"center\">";
+    private static final String END_CELL = "</td><td align=\"center\" >";
+    private static final String END_CELL_OPEN = "</td><td align=\"center\"  style=\"color:red\">";
+    private static final String TIME_CELL = "</td><td align=\"right\"  >";
+    private static final String TIME_CELL_OPEN = "</td><td align=\"right\"   style=\"color:red\">";
+    private static final String STATUS_CELL = "</td><td align=\"center\">";
+    private static final String ROW_END = "</td></tr>";
+    private static final String NOT_RUN_END = "</td>";
+    private static final String MESSAGE_CELL = "</td><td colspan=\"4\" align=\"center\">";
+    private static final String IN_PROGRESS = "In Progress";
+
+    /** Status decorations. */
+    public static final IcmHtmlTemplate RED = IcmHtmlTemplate.compile( "<span style=\"color:red;\">{0}</span>" );
+    public static final IcmHtmlTemplate GREEN = IcmHtmlTemplate.compile( "<span style=\"color:green;\">{0}</span>" );
+    public static final IcmHtmlTemplate WHITE_ON_GREEN = IcmHtmlTemplate.compile( "<span style=\"color:white;background:green\">{0}</span>" );
+    public static final IcmHtmlTemplate WHITE_ON_RED = IcmHtmlTemplate.compile( "<span style=\"background:red;color:white;\">{0}</span>" );
+    public static final IcmHtmlTemplate RED_ON_YELLOW = IcmHtmlTemplate.compile( "<span style=\"background:yellow;color:red;\">{0}</span>" );
+
+    private IcmReportRenderer() {
+    }
+
+    /**
+     * Write a run row.
+     * @param out    Appendable
+     * @param name   String
+     * @param start  LocalDateTime
+     * @param end    LocalDateTime or null if running
+     * @param status String HTML
+     * @param decor  IcmHtmlTemplate for the status or null
+     * @throws IOException exception
+     */
+    public static void row( Appendable out, String name, LocalDateTime start, LocalDateTime end, String status, IcmHtmlTemplate decor ) throws IOException {
+        // Calculate total time.
+        long milliseconds = Duration.between( start, ( end != null ? end : LocalDateTime.now() ) ).toMillis();
+        if( LOGGER.isInfoEnabled() ) {
+            LOGGER.info( "[{}][{}][{}][{}][{}]", name, start, ( end != null ? end : IN_PROGRESS ), IcmTimeFormat.formatDuration( milliseconds ), status );
+        }
+
+        out.append( ROW_START );
+        IcmHtmlTemplate.escape( out, name );
+        out.append( START_CELL );
+        IcmTimeFormat.appendTimestamp( out, IcmTimeFormat.MMDDYYYY_HHMMSSA, start );
+        if( end != null ) {
+            out.append( END_CELL );
+            IcmTimeFormat.appendTimestamp( out, IcmTimeFormat.MMDDYYYY_HHMMSSA, end );
+            out.append( TIME_CELL );
+        }
+        else {
+            out.append( END_CELL_OPEN ).append( IN_PROGRESS ).append( TIME_CELL_OPEN );
+        }
+        IcmTimeFormat.appendDuration( out, milliseconds );
+        out.append( STATUS_CELL );
+        if( decor != null ) {
+            decor.render( out, status );
+        }
+        else {
+            out.append( status );
+        }
+        out.append( ROW_END );
+    }
+
+    /**
+     * Write the row of a job that has not run: the name only.
+     * @param out  Appendable
+     * @param name String
+     * @throws IOException exception
+     */
+    public static void notRun( Appendable out, String name ) throws IOException {
+        out.append( ROW_START );
+        IcmHtmlTemplate.escape( out, name );
+        out.append( NOT_RUN_END );
+    }
+
+    /**
+     * Write a row with a message across the time and status columns.
+     * @param out     Appendable
+     * @param name    String
+     * @param message String HTML
+     * @throws IOException exception
+     */
+    public static void message( Appendable out, String name, String message ) throws IOException {
+        out.append( ROW_START );
+        IcmHtmlTemplate.escape( out, name );
+        out.append( MESSAGE_CELL ).append( message ).append( ROW_END );
+    }
+}
@@ -0,0 +1,142 @@
+package com.uhc.optum.icm.webservice;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Report sections computed at the same time and written in the order they were added.
+ * Each section starts as soon as it is added and has its own timeout; a section that fails or
+ * runs out of time is replaced by its fallback, so the report takes as long as its slowest
+ * section rather than the sum. A section that times out is not stopped: it keeps running,
+ * with its connection, after the report is written. A concurrent section therefore needs a
+ * connection that nothing else uses, such as one borrowed from a pool; a section that can only
+ * use a shared connection must be added with {@link #addOnCaller}.
+ */
+public class IcmReportSections implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmReportSections.class );
+
+    private final ExecutorService executor;
+    private final List<Section> sections = new ArrayList<>();
+
+    /**
+     * One section and its result.
+     */
+    private static final class Section {
+        private final String name;
+        private final CompletableFuture<String> future;
+        private final long deadline;
+        private final Function<String, String> fallback;
+        // Computed by appendTo on the calling thread when there is no future.
+        private final Supplier<String> body;
+
+        private Section( String name, CompletableFuture<String> future, long deadline, Function<String, String> fallback, Supplier<String> body ) {
+            this.name = name;
+            this.future = future;
+            this.deadline = deadline;
+            this.fallback = fallback;
+            this.body = body;
+        }
+    }
+
+    /**
+     * @param threads int sections computed at once
+     */
+    public IcmReportSections( int threads ) {
+        this.executor = Executors.newFixedThreadPool( Math.max( 1, threads ), r -> {
+            Thread t = new Thread( r, "IcmReportSections" );
+            t.setDaemon( true );
+            return t;
+        } );
+    }
+
+    /**
+     * Start computing a section.
+     * @param name     String for the log
+     * @param body     Supplier of the section HTML
+     * @param timeout  long milliseconds
+     * @param fallback Function from the reason the section is missing to the HTML written instead
+     */
+    public void add( String name, Supplier<String> body, long timeout, Function<String, String> fallback ) {
+        long started = System.currentTimeMillis();
+        CompletableFuture<String> future = CompletableFuture.supplyAsync( () -> {
+            String html = body.get();
+            LOGGER.info( "Section {} done in {} ms", name, System.currentTimeMillis() - started );
+            return html;
+        }, executor );
+        sections.add( new Section( name, future, started + timeout, fallback, null ) );
+    }
+
+    /**
+     * Add a section that {@link #appendTo} computes on the calling thread when it reaches it,
+     * while the concurrent sections keep running. It has no timeout, as it cannot be left
+     * behind; it must bound its own time.
+     * @param name     String for the log
+     * @param body     Supplier of the section HTML
+     * @param fallback Function from the reason the section is missing to the HTML written instead
+     */
+    public void addOnCaller( String name, Supplier<String> body, Function<String, String> fallback ) {
+        sections.add( new Section( name, null, 0, fallback, body ) );
+    }
+
+    /**
+     * Wait for the sections and write them in order.
+     * @param out Appendable
+     * @throws IOException exception
+     */
+    public void appendTo( Appendable out ) throws IOException {
+        for( Section section : sections ) {
+            out.append( get( section ) );
+        }
+    }
+
+    private static String get( Section section ) {
+        if( section.future == null ) {
+            long started = System.currentTimeMillis();
+            try {
+                String html = section.body.get();
+                LOGGER.info( "Section {} done in {} ms", section.name, System.currentTimeMillis() - started );
+                return ( html != null ? html : "" );
+            }
+            catch( RuntimeException e ) {
+                LOGGER.error( "Section " + section.name + " failed: ", e );
+                return section.fallback.apply( "failed" );
+            }
+        }
+        try {
+            long left = Math.max( 0, section.deadline - System.currentTimeMillis() );
+            String html = section.future.get( left, TimeUnit.MILLISECONDS );
+            return ( html != null ? html : "" );
+        }
+        catch( TimeoutException e ) {
+            LOGGER.warn( "Section {} timed out", section.name );
+            section.future.cancel( true );
+            return section.fallback.apply( "timed out" );
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return section.fallback.apply( "interrupted" );
+        }
+        catch( ExecutionException e ) {
+            LOGGER.error( "Section " + section.name + " failed: ", e.getCause() );
+            return section.fallback.apply( "failed" );
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
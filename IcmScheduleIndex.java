@@ -0,0 +1,85 @@
+package com.uhc.optum.icm.webservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In memory index over batch schedule slots by day, job id and job stream.
+ * Each list is sorted by schedule time.
+ */
+public class IcmScheduleIndex {
+
+    private static final Comparator<IcmScheduleSlot> BY_TIME = Comparator.comparingInt( IcmScheduleSlot::getTime );
+
+    private final List<IcmScheduleSlot> slots;
+    private final Map<String, List<IcmScheduleSlot>> byDay = new HashMap<>();
+    private final Map<Integer, List<IcmScheduleSlot>> byJob = new HashMap<>();
+    private final Map<String, List<IcmScheduleSlot>> byStream = new HashMap<>();
+
+    /**
+     * @param slots List in report order
+     */
+    public IcmScheduleIndex( List<IcmScheduleSlot> slots ) {
+        this.slots = Collections.unmodifiableList( new ArrayList<>( slots ) );
+        for( IcmScheduleSlot slot : slots ) {
+            byDay.computeIfAbsent( slot.getDay(), k -> new ArrayList<>() ).add( slot );
+            byJob.computeIfAbsent( slot.getJobId(), k -> new ArrayList<>() ).add( slot );
+            if( slot.getJobStream() != null ) {
+                byStream.computeIfAbsent( slot.getJobStream(), k -> new ArrayList<>() ).add( slot );
+            }
+        }
+        sort( byDay );
+        sort( byJob );
+        sort( byStream );
+    }
+
+    private static <K> void sort( Map<K, List<IcmScheduleSlot>> map ) {
+        for( Map.Entry<K, List<IcmScheduleSlot>> e : map.entrySet() ) {
+            e.getValue().sort( BY_TIME );
+            e.setValue( Collections.unmodifiableList( e.getValue() ) );
+        }
+    }
+
+    /**
+     * @return List all slots in report order
+     */
+    public List<IcmScheduleSlot> getSlots() {
+        return slots;
+    }
+
+    /**
+     * @param day String
+     * @return List slots on the day by time
+     */
+    public List<IcmScheduleSlot> getByDay( String day ) {
+        return byDay.getOrDefault( day, Collections.emptyList() );
+    }
+
+    /**
+     * @param jobId int
+     * @return List slots for the job by time
+     */
+    public List<IcmScheduleSlot> getByJob( int jobId ) {
+        return byJob.getOrDefault( jobId, Collections.emptyList() );
+    }
+
+    /**
+     * @param jobStream String
+     * @return List slots in the stream by time
+     */
+    public List<IcmScheduleSlot> getByStream( String jobStream ) {
+        return ( jobStream != null ? byStream.getOrDefault( jobStream, Collections.emptyList() ) : Collections.emptyList() );
+    }
+
+    /**
+     * @param jobId int
+     * @return int number of times the job is scheduled
+     */
+    public int getOccurrences( int jobId ) {
+        return getByJob( jobId ).size();
+    }
+}
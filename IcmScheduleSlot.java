@@ -0,0 +1,68 @@
+package com.uhc.optum.icm.webservice;
+
+/**
+ * One row of icm_batch_schedule: a job scheduled on a day at a time (HHmm).
+ */
+public final class IcmScheduleSlot {
+
+    private final int jobId;
+    private final String jobName;
+    private final String day;
+    private final int time;
+    private final String jobStream;
+    private final boolean active;
+
+    public IcmScheduleSlot( int jobId, String jobName, String day, int time, String jobStream, boolean active ) {
+        this.jobId = jobId;
+        this.jobName = jobName;
+        this.day = day;
+        this.time = time;
+        this.jobStream = jobStream;
+        this.active = active;
+    }
+
+    public int getJobId() {
+        return jobId;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    /**
+     * @return String week day name, e.g. Monday
+     */
+    public String getDay() {
+        return day;
+    }
+
+    /**
+     * @return int schedule time as HHmm, e.g. 1730
+     */
+    public int getTime() {
+        return time;
+    }
+
+    /**
+     * @return String job stream or null
+     */
+    public String getJobStream() {
+        return jobStream;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return String the legacy "day#name#time" key
+     */
+    public String getKey() {
+        return day + "#" + jobName + "#" + time;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + day + "][" + time + "][" + jobName + "/" + jobId + "][" + jobStream + "]";
+    }
+}
@@ -0,0 +1,113 @@
+package com.uhc.optum.icm.webservice;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of prepared statements for one connection, keyed by SQL text.
+ * Statements handed out by the cache must not be closed by the caller.
+ */
+public class IcmStatementCache implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmStatementCache.class );
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param connection Connection
+     * @param maxSize    int maximum number of open statements
+     */
+    public IcmStatementCache( Connection connection, final int maxSize ) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, PreparedStatement> eldest ) {
+                if( size() > maxSize ) {
+                    closeQuietly( eldest.getValue() );
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return Connection the statements belong to
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Get the prepared statement for the SQL, preparing it on first use.
+     * @param sql String
+     * @return PreparedStatement
+     * @throws SQLException exception
+     */
+    public synchronized PreparedStatement prepare( String sql ) throws SQLException {
+        PreparedStatement statement = statements.get( sql );
+        if( statement != null && !statement.isClosed() ) {
+            hits.incrementAndGet();
+            return statement;
+        }
+        misses.incrementAndGet();
+        statement = connection.prepareStatement( sql );
+        statements.put( sql, statement );
+        return statement;
+    }
+
+    /**
+     * @return long
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return long
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return double hits as a fraction of all lookups
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return ( total > 0 ? (double) h / total : 0 );
+    }
+
+    @Override
+    public synchronized void close() {
+        for( PreparedStatement statement : statements.values() ) {
+            closeQuietly( statement );
+        }
+        statements.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "[hits:" + hits.get() + "][misses:" + misses.get() + "][hit rate:" + Math.round( getHitRate() * 100 ) + "%]";
+    }
+
+    private static void closeQuietly( PreparedStatement statement ) {
+        try {
+            statement.close();
+        }
+        catch( SQLException e ) {
+            LOGGER.warn( "Could not close cached statement: " + e );
+        }
+    }
+}
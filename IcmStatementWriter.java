@@ -0,0 +1,92 @@
+package com.uhc.optum.icm.webservice;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Buffers statement metrics and writes them with {@link IcmDao#mergeStatements}.
+ * Use in place of {@link IcmDao#updateStatement} when many statement files are produced
+ * in one run; close the writer to flush the remaining metrics.
+ */
+public class IcmStatementWriter implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmStatementWriter.class );
+
+    /** Default number of statements per flush. */
+    public static final int DEFAULT_BATCH_SIZE = 250;
+
+    private final IcmDao dao;
+    private final int batchSize;
+    private final Map<String, IcmStatement> pending = new LinkedHashMap<>();
+    private long written = 0;
+
+    public IcmStatementWriter( IcmDao dao ) {
+        this( dao, DEFAULT_BATCH_SIZE );
+    }
+
+    /**
+     * @param dao       IcmDao
+     * @param batchSize int statements buffered before a flush
+     */
+    public IcmStatementWriter( IcmDao dao, int batchSize ) {
+        this.dao = dao;
+        this.batchSize = Math.max( 1, batchSize );
+    }
+
+    /**
+     * Add statement metrics, flushing when the batch is full.
+     * A later call for the same party id, type, year and month replaces the earlier one.
+     * @param partyId String
+     * @param type    String
+     * @param year    int
+     * @param month   int
+     * @param bytes   long
+     * @param rows    long
+     * @param time    String
+     */
+    public synchronized void add( String partyId, String type, int year, int month, long bytes, long rows, String time ) {
+        type = RunIcmStatements.CSVFTP.equals( type ) ? RunIcmStatements.CSV : type;
+        IcmStatement stmt = new IcmStatement();
+        stmt.setPartyId( partyId );
+        stmt.setFileType( type );
+        stmt.setYear( year );
+        stmt.setMonth( month );
+        stmt.setBytes( bytes );
+        stmt.setRows( rows );
+        stmt.setTime( time );
+        pending.put( partyId + '#' + type + '#' + year + '#' + month, stmt );
+        if( pending.size() >= batchSize ) {
+            flush();
+        }
+    }
+
+    /**
+     * Write buffered statements.
+     * @return int statements written
+     */
+    public synchronized int flush() {
+        if( pending.isEmpty() ) {
+            return 0;
+        }
+        int i = dao.mergeStatements( pending.values() );
+        written += pending.size();
+        pending.clear();
+        return i;
+    }
+
+    /**
+     * @return long statements written so far
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        LOGGER.info( "Statement metrics written: " + written );
+    }
+}
@@ -0,0 +1,236 @@
+package com.uhc.optum.icm.webservice;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded HTTP server for the latest job status snapshot, as HTML at /status and JSON at
+ * /status.json. Responses are rendered once per snapshot and served from memory with an ETag,
+ * so polling with If-None-Match costs a 304. Requests only read the snapshot supplier and never
+ * go to the database.
+ */
+public class IcmStatusServer implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger( IcmStatusServer.class );
+
+    private static final int THREADS = 2;
+
+    private final Supplier<IcmJobStatusSnapshot> snapshots;
+    private final Function<IcmJobStatusSnapshot, String> html;
+    private final AtomicReference<Rendered> rendered = new AtomicReference<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Rendered responses of one snapshot.
+     */
+    private static final class Rendered {
+        private final IcmJobStatusSnapshot snapshot;
+        private final byte[] json;
+        private final String jsonTag;
+        private final byte[] html;
+        private final String htmlTag;
+
+        private Rendered( IcmJobStatusSnapshot snapshot, String json, String html ) {
+            this.snapshot = snapshot;
+            this.json = json.getBytes( StandardCharsets.UTF_8 );
+            this.jsonTag = etag( "j", this.json );
+            this.html = html.getBytes( StandardCharsets.UTF_8 );
+            this.htmlTag = etag( "h", this.html );
+        }
+    }
+
+    /**
+     * @param port      int
+     * @param snapshots Supplier of the latest snapshot, null until the first compute
+     * @param html      Function rendering a snapshot as an HTML page
+     * @throws IOException if the port cannot be bound
+     */
+    public IcmStatusServer( int port, Supplier<IcmJobStatusSnapshot> snapshots, Function<IcmJobStatusSnapshot, String> html ) throws IOException {
+        this.snapshots = snapshots;
+        this.html = html;
+        this.server = HttpServer.create( new InetSocketAddress( port ), 0 );
+        this.executor = Executors.newFixedThreadPool( THREADS, r -> {
+            Thread t = new Thread( r, "IcmStatusServer" );
+            t.setDaemon( true );
+            return t;
+        } );
+        server.setExecutor( executor );
+        server.createContext( "/status.json", exchange -> handle( exchange, true ) );
+        server.createContext( "/status", exchange -> handle( exchange, false ) );
+    }
+
+    /**
+     * Start serving.
+     */
+    public void start() {
+        server.start();
+        LOGGER.info( "Status server listening on port: " + server.getAddress().getPort() );
+    }
+
+    @Override
+    public void close() {
+        server.stop( 0 );
+        executor.shutdownNow();
+    }
+
+    private void handle( HttpExchange exchange, boolean json ) throws IOException {
+        try {
+            if( !"GET".equals( exchange.getRequestMethod() ) && !"HEAD".equals( exchange.getRequestMethod() ) ) {
+                send( exchange, 405, "text/plain", null, new byte[0] );
+                return;
+            }
+            Rendered r = getRendered();
+            if( r == null ) {
+                send( exchange, 503, "text/plain", null, "Job status not computed yet".getBytes( StandardCharsets.UTF_8 ) );
+                return;
+            }
+            String tag = ( json ? r.jsonTag : r.htmlTag );
+            if( tag.equals( exchange.getRequestHeaders().getFirst( "If-None-Match" ) ) ) {
+                exchange.getResponseHeaders().set( "ETag", tag );
+                exchange.sendResponseHeaders( 304, -1 );
+                return;
+            }
+            if( json ) {
+                send( exchange, 200, "application/json; charset=utf-8", tag, r.json );
+            }
+            else {
+                send( exchange, 200, "text/html; charset=utf-8", tag, r.html );
+            }
+        }
+        catch( Exception e ) {
+            LOGGER.error( "Could not serve job status: ", e );
+            send( exchange, 500, "text/plain", null, new byte[0] );
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Get the rendered responses of the latest snapshot, rendering them if the snapshot is new.
+     * @return Rendered or null if there is no snapshot yet
+     */
+    private Rendered getRendered() {
+        IcmJobStatusSnapshot snapshot = snapshots.get();
+        if( snapshot == null ) {
+            return null;
+        }
+        Rendered r = rendered.get();
+        if( r != null && r.snapshot == snapshot ) {
+            return r;
+        }
+        Rendered fresh = new Rendered( snapshot, toJson( snapshot ), html.apply( snapshot ) );
+        // If another reader rendered the same snapshot first, either copy is fine.
+        rendered.set( fresh );
+        return fresh;
+    }
+
+    private static void send( HttpExchange exchange, int status, String type, String tag, byte[] body ) throws IOException {
+        exchange.getResponseHeaders().set( "Content-Type", type );
+        exchange.getResponseHeaders().set( "Cache-Control", "no-cache" );
+        if( tag != null ) {
+            exchange.getResponseHeaders().set( "ETag", tag );
+        }
+        boolean head = "HEAD".equals( exchange.getRequestMethod() );
+        exchange.sendResponseHeaders( status, ( head || body.length == 0 ? -1 : body.length ) );
+        if( !head && body.length > 0 ) {
+            try( OutputStream out = exchange.getResponseBody() ) {
+                out.write( body );
+            }
+        }
+    }
+
+    private static String etag( String prefix, byte[] body ) {
+        CRC32 crc = new CRC32();
+        crc.update( body );
+        return "\"" + prefix + Long.toHexString( crc.getValue() ) + "-" + Integer.toHexString( body.length ) + "\"";
+    }
+
+    /**
+     * Render a snapshot as JSON.
+     * @param snapshot IcmJobStatusSnapshot
+     * @return String
+     */
+    public static String toJson( IcmJobStatusSnapshot snapshot ) {
+        StringBuilder sb = new StringBuilder( 256 + snapshot.getSlots().size() * 256 );
+        sb.append( "{\"start\":" ).append( quote( snapshot.getStart() ) );
+        sb.append( ",\"end\":" ).append( quote( snapshot.getEnd() ) );
+        sb.append( ",\"created\":" ).append( quote( snapshot.getCreated() ) );
+        sb.append( ",\"completed\":" ).append( snapshot.count( IcmJobSlotStatus.State.COMPLETED ) );
+        sb.append( ",\"inProgress\":" ).append( snapshot.count( IcmJobSlotStatus.State.IN_PROGRESS ) );
+        sb.append( ",\"notRun\":" ).append( snapshot.count( IcmJobSlotStatus.State.NOT_RUN ) );
+        sb.append( ",\"slots\":[" );
+        boolean first = true;
+        for( IcmJobSlotStatus slot : snapshot.getSlots() ) {
+            sb.append( first ? "" : "," );
+            first = false;
+            IcmScheduleSlot s = slot.getSlot();
+            sb.append( "{\"job\":" ).append( quote( slot.getJob().getName() ) );
+            sb.append( ",\"description\":" ).append( quote( slot.getJob().getDesc() ) );
+            sb.append( ",\"day\":" ).append( quote( s.getDay() ) );
+            sb.append( ",\"time\":" ).append( s.getTime() );
+            sb.append( ",\"stream\":" ).append( quote( s.getJobStream() ) );
+            sb.append( ",\"state\":" ).append( quote( slot.getState().name() ) );
+            sb.append( ",\"start\":" ).append( quote( slot.getStart() ) );
+            sb.append( ",\"end\":" ).append( quote( slot.getEnd() ) );
+            sb.append( ",\"task\":" ).append( quote( slot.getCurrentTask() ) );
+            sb.append( ",\"success\":" ).append( slot.getState() == IcmJobSlotStatus.State.COMPLETED ? String.valueOf( slot.isSuccess() ) : "null" );
+            sb.append( '}' );
+        }
+        return sb.append( "]}" ).toString();
+    }
+
+    private static String quote( LocalDateTime value ) {
+        return ( value != null ? quote( value.toString() ) : "null" );
+    }
+
+    private static String quote( String value ) {
+        if( value == null ) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder( value.length() + 2 ).append( '"' );
+        for( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt( i );
+            switch( c ) {
+                case '"':
+                    sb.append( "\\\"" );
+                    break;
+                case '\\':
+                    sb.append( "\\\\" );
+                    break;
+                case '\n':
+                    sb.append( "\\n" );
+                    break;
+                case '\r':
+                    sb.append( "\\r" );
+                    break;
+                case '\t':
+                    sb.append( "\\t" );
+                    break;
+                default:
+                    if( c < 0x20 ) {
+                        sb.append( String.format( "\\u%04x", (int) c ) );
+                    }
+                    else {
+                        sb.append( c );
+                    }
+            }
+        }
+        return sb.append( '"' ).toString();
+    }
+}
@@ -0,0 +1,101 @@
+package com.uhc.optum.icm.webservice;
+
+import com.uhc.optum.util.DateUtil;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.Locale;
+
+/**
+ * Precompiled formatters for the ICM reports and DAO, with timestamp and duration formatting
+ * that writes straight into an Appendable and so avoids intermediate Strings.
+ * DateTimeFormatter is immutable and thread safe, so one instance of each is shared; the
+ * per-thread buffer is only for callers that need a String.
+ */
+public final class IcmTimeFormat {
+
+    /** MM/dd/yyyy hh:mm:ss a */
+    public static final DateTimeFormatter MMDDYYYY_HHMMSSA = DateTimeFormatter.ofPattern( DateUtil.FMT_MMDDYYYY_HHMMSSA, Locale.US );
+    /** M/d/yyyy */
+    public static final DateTimeFormatter MDYYYY = DateTimeFormatter.ofPattern( DateUtil.FMT_MDYYYY, Locale.US );
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial( () -> new StringBuilder( 64 ) );
+
+    private IcmTimeFormat() {
+    }
+
+    /**
+     * Write a timestamp.
+     * @param out       Appendable
+     * @param formatter DateTimeFormatter
+     * @param value     TemporalAccessor
+     * @throws IOException exception
+     */
+    public static void appendTimestamp( Appendable out, DateTimeFormatter formatter, TemporalAccessor value ) throws IOException {
+        formatter.formatTo( value, out );
+    }
+
+    /**
+     * Write a duration as HH:mm:ss, the hours growing past two digits when needed.
+     * Negative durations are written as their absolute value.
+     * @param out    Appendable
+     * @param millis long
+     * @throws IOException exception
+     */
+    public static void appendDuration( Appendable out, long millis ) throws IOException {
+        long seconds = Math.abs( millis ) / 1000;
+        long hours = seconds / 3600;
+        int minutes = (int) ( seconds / 60 % 60 );
+        int secs = (int) ( seconds % 60 );
+        if( hours < 10 ) {
+            out.append( '0' );
+        }
+        appendLong( out, hours );
+        out.append( ':' );
+        appendTwoDigits( out, minutes );
+        out.append( ':' );
+        appendTwoDigits( out, secs );
+    }
+
+    /**
+     * Format a duration as HH:mm:ss using a per-thread buffer.
+     * @param millis long
+     * @return String
+     */
+    public static String formatDuration( long millis ) {
+        StringBuilder sb = BUFFER.get();
+        sb.setLength( 0 );
+        try {
+            appendDuration( sb, millis );
+        }
+        catch( IOException e ) {
+            // StringBuilder does not throw.
+            throw new IllegalStateException( e );
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Place a schedule time (HHmm, e.g. 1730) on a day.
+     * @param day  LocalDate
+     * @param time int
+     * @return LocalDateTime
+     */
+    public static LocalDateTime atScheduleTime( LocalDate day, int time ) {
+        return day.atTime( time / 100, time % 100 );
+    }
+
+    private static void appendTwoDigits( Appendable out, int value ) throws IOException {
+        out.append( (char) ( '0' + value / 10 ) ).append( (char) ( '0' + value % 10 ) );
+    }
+
+    private static void appendLong( Appendable out, long value ) throws IOException {
+        if( value >= 10 ) {
+            appendLong( out, value / 10 );
+        }
+        out.append( (char) ( '0' + value % 10 ) );
+    }
+}
@@ -0,0 +1,13 @@
+-- FDS statement counts per payout month and type, kept by IcmDao.updateFdsStatementTotals.
+-- The MERGE there matches rows on year, month and statement_type, so that key must be unique.
+CREATE TABLE icm_fds_statement_total (
+    fds_statement_total_id int IDENTITY(1,1) NOT NULL,
+    year                   int          NOT NULL,
+    month                  int          NOT NULL,
+    statement_type         varchar(20)  NOT NULL,
+    statement_count        int          NOT NULL DEFAULT 0,
+    watermark              datetime     NULL,
+    date_updated           datetime     NOT NULL DEFAULT getdate(),
+    CONSTRAINT pk_icm_fds_statement_total PRIMARY KEY ( fds_statement_total_id ),
+    CONSTRAINT uk_icm_fds_statement_total UNIQUE ( year, month, statement_type )
+);
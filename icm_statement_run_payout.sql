@@ -0,0 +1,6 @@
+-- Payout month of each statement run, set by IcmDao.insertStatementRun and updateStatementRun
+-- from the configured payout date. IcmDao.addStatementRunCounts adds runs to the FDS totals of
+-- this month; runs from before these columns existed have nulls and fall back to their start date.
+ALTER TABLE icm_statement_run ADD
+    payout_year  int NULL,
+    payout_month int NULL;